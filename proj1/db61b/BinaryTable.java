@@ -0,0 +1,273 @@
+package db61b;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import static db61b.Utils.*;
+
+/** Reads and writes tables in the binary .dbb format.  A .dbb file holds,
+ *  in order and with all integers big-endian:
+ *  <pre>
+ *    magic number, format version, number of columns, number of rows
+ *    for each column:
+ *      title: byte length, UTF-8 bytes
+ *      type: ordinal of its ColumnType (absent in version 1 files, whose
+ *            columns are all STRING)
+ *      code width in bytes (1, 2, or 4)
+ *      dictionary: byte length, number of distinct values n, n+1 offsets
+ *                  into the following UTF-8 bytes of the values
+ *      one code per row, of the code width
+ *  </pre>
+ *  Values of typed columns are dictionary encoded in their canonical
+ *  text, like those of STRING columns.
+ *  The dictionary and codes of each column are memory-mapped when a file
+ *  is read, so loading does not copy the table onto the heap.
+ *  @author JuKyung Choi
+ */
+class BinaryTable {
+
+    /** Identifies .dbb files. */
+    private static final int MAGIC = 0x44423631;
+    /** Current format version, and the earliest that can still be
+     *  read. */
+    private static final int VERSION = 2, OLDEST_VERSION = 1;
+    /** Largest numbers of distinct values that fit in 1- and 2-byte
+     *  codes. */
+    private static final int MAX_BYTE_CODES = 1 << 8, MAX_SHORT_CODES = 1 << 16;
+    /** Number of values copied from a table at a time by write. */
+    private static final int READ_BLOCK = 1 << 12;
+    /** Size of the fixed part of the file header, in bytes. */
+    private static final int HEADER_SIZE = 16;
+
+    /** Return the file that holds the binary form of table NAME. */
+    static File file(String name) {
+        return new File(name + ".dbb");
+    }
+
+    /** Return true iff table NAME should be loaded from its .dbb file: that
+     *  is, iff it exists, and NAME.db either does not exist or is older. */
+    static boolean isNewer(String name) {
+        File binary = file(name), text = new File(name + ".db");
+        return binary.exists()
+            && (!text.exists() || binary.lastModified() > text.lastModified());
+    }
+
+    /** Make FILE, which has just been written, newer than OTHER, so that
+     *  the most recently stored format of a table is the one loaded. */
+    static void markNewer(File file, File other) {
+        if (other.exists() && other.lastModified() >= file.lastModified()) {
+            file.setLastModified(other.lastModified() + 1000);
+        }
+    }
+
+    /** Write TABLE to NAME.dbb.  The file is written under a temporary
+     *  name, forced to disk, and then renamed, so that tables currently
+     *  mapped from an older NAME.dbb are unaffected. */
+    static void write(Table table, String name) {
+        write(table, name, table.size());
+    }
+
+    /** Write the first NUMROWS rows of TABLE to NAME.dbb, as for
+     *  write(TABLE, NAME).  Other threads may add rows to TABLE
+     *  meanwhile. */
+    static void write(Table table, String name, int numRows) {
+        File file = file(name), temp = new File(name + ".dbb.tmp");
+        try (FileOutputStream stream = new FileOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(stream))) {
+            int numColumns = table.numColumns();
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(numColumns);
+            out.writeInt(numRows);
+            for (int c = 0; c < numColumns; c++) {
+                writeColumn(out, table, c, numRows);
+            }
+            out.flush();
+            stream.getFD().sync();
+        } catch (IOException e) {
+            throw error("trouble writing to %s.dbb", name);
+        }
+        try {
+            replace(temp, file);
+        } catch (IOException e) {
+            throw error("trouble writing to %s.dbb", name);
+        }
+        markNewer(file, new File(name + ".db"));
+    }
+
+    /** Atomically replace FILE with TEMP, which has been forced to disk,
+     *  and force the change of name to disk if possible. */
+    static void replace(File temp, File file) throws IOException {
+        Files.move(temp.toPath(), file.toPath(),
+                   StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+        File dir = file.getAbsoluteFile().getParentFile();
+        try (FileChannel channel = FileChannel.open(dir.toPath(),
+                                                    StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            /* Ignore: not all systems can force a directory. */
+        }
+    }
+
+    /** Write the title, dictionary, and codes of column #C of the first
+     *  NUMROWS rows of TABLE to OUT. */
+    private static void writeColumn(DataOutputStream out, Table table, int c,
+                                    int numRows) throws IOException {
+        byte[] title = table.title(c).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(title.length);
+        out.write(title);
+        out.writeInt(table.type(c).ordinal());
+
+        HashMap<String, Integer> codes = new HashMap<>();
+        ArrayList<byte[]> values = new ArrayList<>();
+        int[] rowCodes = new int[numRows];
+        for (int start = 0; start < numRows; start += READ_BLOCK) {
+            int end = Math.min(numRows, start + READ_BLOCK);
+            String[] block = table.values(c, start, end);
+            for (int r = start; r < end; r++) {
+                String value = block[r - start];
+                Integer code = codes.get(value);
+                if (code == null) {
+                    code = values.size();
+                    codes.put(value, code);
+                    values.add(value.getBytes(StandardCharsets.UTF_8));
+                }
+                rowCodes[r] = code;
+            }
+        }
+        int width = values.size() <= MAX_BYTE_CODES ? 1
+            : values.size() <= MAX_SHORT_CODES ? 2 : 4;
+        out.writeInt(width);
+
+        int numBytes = 0;
+        for (byte[] value : values) {
+            numBytes += value.length;
+        }
+        out.writeInt(4 * (values.size() + 2) + numBytes);
+        out.writeInt(values.size());
+        int offset = 0;
+        for (byte[] value : values) {
+            out.writeInt(offset);
+            offset += value.length;
+        }
+        out.writeInt(offset);
+        for (byte[] value : values) {
+            out.write(value);
+        }
+
+        for (int code : rowCodes) {
+            switch (width) {
+            case 1:
+                out.writeByte(code);
+                break;
+            case 2:
+                out.writeShort(code);
+                break;
+            default:
+                out.writeInt(code);
+                break;
+            }
+        }
+    }
+
+    /** Return the Table named NAME whose contents are in NAME.dbb, mapped
+     *  into memory.  Format errors cause a DBException. */
+    static Table read(String name) {
+        return read(name, true);
+    }
+
+    /** Return an empty Table with the name, column titles, and column
+     *  types of the table in NAME.dbb, reading none of its rows.  Format
+     *  errors in the parts read cause a DBException. */
+    static Table readHeader(String name) {
+        return read(name, false);
+    }
+
+    /** Return the Table named NAME whose column titles and types are those
+     *  in NAME.dbb, and whose rows are those in NAME.dbb, mapped into
+     *  memory, if ROWS, and otherwise none. */
+    private static Table read(String name, boolean rows) {
+        File file = file(name);
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                                               StandardOpenOption.READ)) {
+            long size = in.size();
+            if (size < HEADER_SIZE) {
+                throw error("missing header in DB file");
+            }
+            ByteBuffer header = map(in, 0, HEADER_SIZE, size);
+            int version = header.getInt(4);
+            if (header.getInt(0) != MAGIC || version < OLDEST_VERSION
+                || version > VERSION) {
+                throw error("%s.dbb is not a db61b binary table", name);
+            }
+            int numColumns = header.getInt(8), numRows = header.getInt(12);
+            String[] titles = new String[numColumns];
+            ColumnType[] types = Table.strings(numColumns);
+            ByteBuffer[] dictionaries = new ByteBuffer[numColumns],
+                codes = new ByteBuffer[numColumns];
+            int[] widths = new int[numColumns];
+
+            long pos = HEADER_SIZE;
+            for (int c = 0; c < numColumns; c++) {
+                int length = map(in, pos, 4, size).getInt(0);
+                byte[] title = new byte[length];
+                map(in, pos + 4, length, size).get(title);
+                titles[c] = new String(title, StandardCharsets.UTF_8);
+                pos += 4 + length;
+                if (version > 1) {
+                    int type = map(in, pos, 4, size).getInt(0);
+                    if (type < 0 || type >= ColumnType.values().length) {
+                        throw error("binary table file is truncated or "
+                                    + "corrupt");
+                    }
+                    types[c] = ColumnType.values()[type];
+                    pos += 4;
+                }
+                ByteBuffer meta = map(in, pos, 8, size);
+                widths[c] = meta.getInt(0);
+                int dictSize = meta.getInt(4);
+                pos += 8;
+                long codesSize = (long) widths[c] * numRows;
+                if (rows) {
+                    dictionaries[c] = map(in, pos, dictSize, size);
+                    codes[c] = map(in, pos + dictSize, codesSize, size);
+                }
+                pos += dictSize + codesSize;
+            }
+            if (!rows) {
+                return new Table(name, titles, types);
+            }
+            return new Table(name, titles,
+                             new MappedStorage(types, numRows, dictionaries,
+                                               codes, widths));
+        } catch (IOException e) {
+            throw error("problem reading from %s.dbb", name);
+        }
+    }
+
+    /** Return bytes START .. START+LENGTH-1 of IN, whose size is SIZE,
+     *  mapped into memory.  Throws a DBException if they do not all lie
+     *  in IN. */
+    private static MappedByteBuffer map(FileChannel in, long start,
+                                        long length, long size)
+        throws IOException {
+        if (start + length > size || length > Integer.MAX_VALUE) {
+            throw error("binary table file is truncated or corrupt");
+        }
+        return in.map(FileChannel.MapMode.READ_ONLY, start, length);
+    }
+}
@@ -0,0 +1,126 @@
+package db61b;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/** A cache of the Pages of PagedStorages that holds at most a budgeted
+ *  number of bytes of them, as long as not too many are pinned.  Pages
+ *  are kept in order of last use, and when they take more than the
+ *  budget, the least recently used ones that are not pinned are dropped.
+ *  Since a Page is never changed once it is in the pool, dropping it never
+ *  requires writing it; it is simply read back from its file when next
+ *  needed.
+ *  @author JuKyung Choi
+ */
+class BufferPool {
+
+    /** Budget of POOL, in bytes.  Set with the system property
+     *  db61b.bufferPool. */
+    static final long BUDGET = Long.getLong("db61b.bufferPool", 1L << 28);
+
+    /** The pool shared by the PagedStorages of all Tables. */
+    static final BufferPool POOL = new BufferPool(BUDGET);
+
+    /** An empty pool holding at most BUDGET bytes of unpinned Pages. */
+    BufferPool(long budget) {
+        _budget = budget;
+        _pages = new LinkedHashMap<>(INITIAL_PAGES, LOAD_FACTOR, true);
+    }
+
+    /** Return page #NUMBER of STORAGE, pinned: that is, kept in the pool
+     *  until it has been passed to unpin as often as to pin.  The page is
+     *  read from STORAGE's file if it is not in the pool. */
+    Page pin(PagedStorage storage, int number) {
+        long key = key(storage.id(), number);
+        synchronized (this) {
+            Page page = _pages.get(key);
+            if (page != null) {
+                page._pins += 1;
+                return page;
+            }
+        }
+        Page page = storage.readPage(number);
+        synchronized (this) {
+            Page other = _pages.get(key);
+            if (other != null) {
+                page = other;
+            } else {
+                _pages.put(key, page);
+                _used += page.footprint();
+            }
+            page._pins += 1;
+            evict();
+            return page;
+        }
+    }
+
+    /** Pin PAGE, which need not be in the pool, and return it. */
+    synchronized Page pin(Page page) {
+        page._pins += 1;
+        return page;
+    }
+
+    /** Undo one pin of PAGE. */
+    synchronized void unpin(Page page) {
+        page._pins -= 1;
+        if (page._pins == 0 && _used > _budget) {
+            evict();
+        }
+    }
+
+    /** Add PAGE, which has just been filled and written, to the pool as
+     *  page #PAGE.number() of the PagedStorage numbered ID. */
+    synchronized void add(int id, Page page) {
+        _pages.put(key(id, page.number()), page);
+        _used += page.footprint();
+        evict();
+    }
+
+    /** Drop all pages of the PagedStorage numbered ID, which is no longer
+     *  in use. */
+    synchronized void discard(int id) {
+        Iterator<Long> keys = _pages.keySet().iterator();
+        while (keys.hasNext()) {
+            long key = keys.next();
+            if ((int) (key >>> Integer.SIZE) == id) {
+                _used -= _pages.get(key).footprint();
+                keys.remove();
+            }
+        }
+    }
+
+    /** Return the approximate number of bytes taken by the pages in the
+     *  pool. */
+    synchronized long used() {
+        return _used;
+    }
+
+    /** Drop least recently used pages that are not pinned until the pool
+     *  is within its budget or there are none left. */
+    private void evict() {
+        Iterator<Page> pages = _pages.values().iterator();
+        while (_used > _budget && pages.hasNext()) {
+            Page page = pages.next();
+            if (page._pins == 0) {
+                pages.remove();
+                _used -= page.footprint();
+            }
+        }
+    }
+
+    /** Return the key of page #NUMBER of the PagedStorage numbered ID. */
+    private static long key(int id, int number) {
+        return ((long) id << Integer.SIZE) | (number & 0xffffffffL);
+    }
+
+    /** Initial capacity and load factor of _pages. */
+    private static final int INITIAL_PAGES = 64;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /** Maximum number of bytes of unpinned pages. */
+    private final long _budget;
+    /** The pages in the pool, by key, from least to most recently used. */
+    private final LinkedHashMap<Long, Page> _pages;
+    /** Approximate number of bytes taken by the pages in _pages. */
+    private long _used;
+}
@@ -67,6 +67,34 @@ class Column {
         return _rowSource.value(_index);
     }
 
+    /** Return the TableIterator to which I am resolved, or null if I
+     *  am unresolved or a Literal. */
+    TableIterator source() {
+        return _rowSource;
+    }
+
+    /** Return the number of my column in the Table of source().  This
+     *  Column must be resolved. */
+    int index() {
+        return _index;
+    }
+
+    /** Return a copy of me resolved to IT, a TableIterator over the same
+     *  Table as the one to which I am resolved. */
+    Column moveTo(TableIterator it) {
+        Column copy = new Column(_table, _columnName);
+        copy._rowSource = it;
+        copy._index = _index;
+        return copy;
+    }
+
+    /** Return the type of my column, or null if I am a Literal, whose
+     *  type is that of whatever it is compared with.  This Column must be
+     *  resolved. */
+    ColumnType type() {
+        return _rowSource.table().type(_index);
+    }
+
     /** Column name denoted by THIS. */
     private String _columnName;
     /** Index of the column from which to extract a value. */
@@ -0,0 +1,136 @@
+package db61b;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
+import static db61b.Utils.*;
+
+/** The type of the values in a column.  Values are always presented as
+ *  Strings, but those of a typed column are checked and put into a
+ *  canonical form when added to a Table, may be stored in primitive form,
+ *  and are compared by value rather than as text.
+ *  @author JuKyung Choi
+ */
+enum ColumnType {
+    /** Arbitrary text, compared lexicographically (the default). */
+    STRING,
+    /** 64-bit integers. */
+    INT,
+    /** Decimal numbers, held as doubles. */
+    DECIMAL,
+    /** Dates, written yyyy-mm-dd, held as days since 1970-01-01. */
+    DATE;
+
+    /** Return the type named NAME (as written in a table definition or a
+     *  .db header, such as "int"), or null if there is none. */
+    static ColumnType named(String name) {
+        for (ColumnType type : values()) {
+            if (type.toString().equals(name)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    /** Return the type in which to compare values of types TYPE1 and TYPE2,
+     *  either of which may be null for a Literal, which takes on the type
+     *  of what it is compared with. */
+    static ColumnType common(ColumnType type1, ColumnType type2) {
+        if (type1 == null || type1 == type2) {
+            return type2 == null ? STRING : type2;
+        } else if (type2 == null) {
+            return type1;
+        } else if (type1.isNumeric() && type2.isNumeric()) {
+            return DECIMAL;
+        }
+        return STRING;
+    }
+
+    /** Return true iff I am INT or DECIMAL. */
+    boolean isNumeric() {
+        return this == INT || this == DECIMAL;
+    }
+
+    /** Return true iff my values are stored as longs (see toLong). */
+    boolean isIntegral() {
+        return this == INT || this == DATE;
+    }
+
+    /** Return VALUE in my canonical form.  Throws a DBException if VALUE is
+     *  not a valid value of my type. */
+    String canonical(String value) {
+        switch (this) {
+        case INT:
+        case DATE:
+            return format(toLong(value));
+        case DECIMAL:
+            return format(toDouble(value));
+        default:
+            return value;
+        }
+    }
+
+    /** Return VALUE, which must be an INT or DATE, as a long (for a DATE,
+     *  its day number). */
+    long toLong(String value) {
+        try {
+            if (this == DATE) {
+                return LocalDate.parse(value).toEpochDay();
+            }
+            return Long.parseLong(value);
+        } catch (NumberFormatException | DateTimeParseException e) {
+            throw error("'%s' is not a valid %s", value, this);
+        }
+    }
+
+    /** Return VALUE, which must be numeric, as a double (never -0.0). */
+    double toDouble(String value) {
+        try {
+            double x = Double.parseDouble(value);
+            if (!Double.isInfinite(x) && !Double.isNaN(x)) {
+                return x + 0.0;
+            }
+        } catch (NumberFormatException e) {
+            /* Fall through. */
+        }
+        throw error("'%s' is not a valid %s", value, this);
+    }
+
+    /** Return the canonical text of the INT or DATE whose long form is
+     *  X. */
+    String format(long x) {
+        if (this == DATE) {
+            return LocalDate.ofEpochDay(x).toString();
+        }
+        return Long.toString(x);
+    }
+
+    /** Return the canonical text of the DECIMAL X. */
+    String format(double x) {
+        if (x == 0) {
+            return "0";
+        }
+        return BigDecimal.valueOf(x).stripTrailingZeros().toPlainString();
+    }
+
+    /** Return a negative, zero, or positive value according as the value
+     *  of my type denoted by A is less than, equal to, or greater than that
+     *  denoted by B. */
+    int compare(String a, String b) {
+        switch (this) {
+        case INT:
+        case DATE:
+            return Long.compare(toLong(a), toLong(b));
+        case DECIMAL:
+            return Double.compare(toDouble(a), toDouble(b));
+        default:
+            return a.compareTo(b);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,171 @@
+package db61b;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** Storage that keeps each column separately.  STRING columns are
+ *  dictionary encoded: the distinct values of a column are stored once,
+ *  and each row holds only a small integer code per column, which suits
+ *  columns with few distinct values, such as grades or majors.  Typed
+ *  columns are stored as arrays of longs (INT and DATE) or doubles
+ *  (DECIMAL).
+ *  @author JuKyung Choi
+ */
+class ColumnarStorage extends Storage {
+
+    /** Initial number of rows allocated in each column. */
+    private static final int INITIAL_ROWS = 16;
+
+    /** An empty ColumnarStorage for rows whose values have types TYPES. */
+    ColumnarStorage(ColumnType[] types) {
+        super(types);
+        int numColumns = types.length;
+        _capacity = INITIAL_ROWS;
+        _codes = new int[numColumns][];
+        _longs = new long[numColumns][];
+        _doubles = new double[numColumns][];
+        _values = new String[numColumns][];
+        _numValues = new int[numColumns];
+        _dictionaries = new ArrayList<>();
+        for (int c = 0; c < numColumns; c++) {
+            if (types[c].isIntegral()) {
+                _longs[c] = new long[INITIAL_ROWS];
+            } else if (types[c] == ColumnType.DECIMAL) {
+                _doubles[c] = new double[INITIAL_ROWS];
+            } else {
+                _codes[c] = new int[INITIAL_ROWS];
+                _values[c] = new String[INITIAL_ROWS];
+            }
+            _dictionaries.add(_codes[c] == null ? null
+                              : new HashMap<String, Integer>());
+        }
+    }
+
+    @Override
+    int size() {
+        return _size;
+    }
+
+    @Override
+    String get(int row, int col) {
+        if (_longs[col] != null) {
+            return type(col).format(_longs[col][row]);
+        } else if (_doubles[col] != null) {
+            return type(col).format(_doubles[col][row]);
+        }
+        return _values[col][_codes[col][row]];
+    }
+
+    @Override
+    long getLong(int row, int col) {
+        return _longs[col][row];
+    }
+
+    @Override
+    double getDouble(int row, int col) {
+        if (_longs[col] != null) {
+            return _longs[col][row];
+        }
+        return _doubles[col][row];
+    }
+
+    /** Return the dictionary code of the value of STRING column #COL in
+     *  row #ROW.  Two rows have equal values in a column iff their codes
+     *  for it are equal. */
+    int code(int row, int col) {
+        return _codes[col][row];
+    }
+
+    @Override
+    void add(Row row) {
+        if (_size == _capacity) {
+            _capacity *= 2;
+            int[][] codes = _codes.clone();
+            long[][] longs = _longs.clone();
+            double[][] doubles = _doubles.clone();
+            for (int c = 0; c < numColumns(); c++) {
+                if (longs[c] != null) {
+                    longs[c] = Arrays.copyOf(longs[c], _capacity);
+                } else if (doubles[c] != null) {
+                    doubles[c] = Arrays.copyOf(doubles[c], _capacity);
+                } else {
+                    codes[c] = Arrays.copyOf(codes[c], _capacity);
+                }
+            }
+            _codes = codes;
+            _longs = longs;
+            _doubles = doubles;
+        }
+        for (int c = 0; c < numColumns(); c++) {
+            if (_longs[c] != null) {
+                _longs[c][_size] = type(c).toLong(row.get(c));
+            } else if (_doubles[c] != null) {
+                _doubles[c][_size] = type(c).toDouble(row.get(c));
+            } else {
+                _codes[c][_size] = encode(c, row.get(c));
+            }
+        }
+        _size += 1;
+    }
+
+    @Override
+    boolean rowEquals(int k, Row row) {
+        for (int c = 0; c < numColumns(); c++) {
+            if (_codes[c] == null) {
+                if (!row.get(c).equals(get(k, c))) {
+                    return false;
+                }
+                continue;
+            }
+            Integer code = _dictionaries.get(c).get(row.get(c));
+            if (code == null || code != _codes[c][k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the code for VALUE in STRING column #COL, adding VALUE to
+     *  that column's dictionary if it is new. */
+    private int encode(int col, String value) {
+        Integer code = _dictionaries.get(col).get(value);
+        if (code != null) {
+            return code;
+        }
+        int n = _numValues[col];
+        if (n == _values[col].length) {
+            String[][] values = _values.clone();
+            values[col] = Arrays.copyOf(values[col], 2 * n);
+            _values = values;
+        }
+        _values[col][n] = value;
+        _dictionaries.get(col).put(value, n);
+        _numValues[col] = n + 1;
+        return n;
+    }
+
+    /** My number of rows. */
+    private int _size;
+    /** Number of rows for which each column array has room. */
+    private int _capacity;
+    /** _codes[c][r] is the code of the value of STRING column #c in row
+     *  #r.  _codes[c] is null for typed columns.  This and the following
+     *  arrays are replaced by copies, rather than changed, when a column
+     *  grows, so that readers of earlier rows need no lock. */
+    private volatile int[][] _codes;
+    /** _longs[c][r] is the value of INT or DATE column #c in row #r.
+     *  _longs[c] is null for other columns. */
+    private volatile long[][] _longs;
+    /** _doubles[c][r] is the value of DECIMAL column #c in row #r.
+     *  _doubles[c] is null for other columns. */
+    private volatile double[][] _doubles;
+    /** _values[c][k] is the value whose code in STRING column #c is k. */
+    private volatile String[][] _values;
+    /** _numValues[c] is the number of distinct values in STRING column
+     *  #c. */
+    private int[] _numValues;
+    /** Maps each value of STRING column #c to its code, for encoding.  Null
+     *  for typed columns. */
+    private ArrayList<HashMap<String, Integer>> _dictionaries;
+}
@@ -1,10 +1,13 @@
 package db61b;
 
 import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
 import static db61b.Utils.*;
 /**
  * An object that reads and interprets a sequence of commands from an input
@@ -101,10 +104,28 @@ class CommandInterpreter {
      * PROMPTER, if it is non-null, and using DATABASE to map names of tables to
      * corresponding Tables.
      */
-    CommandInterpreter(Map<String, Table> database, Scanner inp,
+    CommandInterpreter(Map<String, Table> database, Reader inp,
             PrintStream prompter) {
-        _input = new Tokenizer(inp, prompter);
+        this(database, inp, prompter, null, new StoreQueue(null));
+    }
+
+    /**
+     * A new CommandParser as above that writes its results, as well as its
+     * prompts, on OUTPUT, or on the standard output if OUTPUT is null.  It
+     * records the changes it makes to tables in LOG, unless it is null, and
+     * writes stored tables with STORES.  DATABASE, LOG and STORES may be
+     * shared with other CommandParsers running concurrently, provided
+     * DATABASE is thread-safe.
+     */
+    CommandInterpreter(Map<String, Table> database, Reader inp,
+            PrintStream output, WriteAheadLog log, StoreQueue stores) {
+        _input = new Tokenizer(inp, output);
+        _output = output == null ? System.out : output;
         _database = database;
+        _log = log;
+        _stores = stores;
+        _prepared = new HashMap<>();
+        _queries = new QueryCache();
     }
 
     /**
@@ -112,6 +133,7 @@ class CommandInterpreter {
      * the command is something other than quit or exit.
      */
     boolean statement() {
+        _input.flush();
         switch (_input.peek()) {
         case "create":
             createStatement();
@@ -137,6 +159,18 @@ class CommandInterpreter {
         case "store":
             storeStatement();
             break;
+        case "prepare":
+            prepareStatement();
+            break;
+        case "execute":
+            executeStatement();
+            break;
+        case "sync":
+            syncStatement();
+            break;
+        case "analyze":
+            analyzeStatement();
+            break;
         default:
             throw error("unrecognizable command");
         }
@@ -146,10 +180,36 @@ class CommandInterpreter {
     /** Parse and execute a create statement from the token stream. */
     private void createStatement() {
         _input.next("create");
+        if (_input.nextIf("index")) {
+            createIndexStatement();
+            return;
+        }
         _input.next("table");
         String name = name();
         Table table = tableDefinition(name);
-        _database.put(name, table);
+        synchronized (table) {
+            _database.put(name, table);
+            if (_log != null) {
+                _log.created(table);
+            }
+        }
+        if (_log != null) {
+            _log.commit();
+        }
+        _input.next(";");
+    }
+
+    /**
+     * Parse and execute the rest of a create index statement, whose
+     * initial "create index" has been read.
+     */
+    private void createIndexStatement() {
+        _input.next("on");
+        Table table = tableName();
+        _input.next("(");
+        String column = colName();
+        _input.next(")");
+        table.createIndex(column);
         _input.next(";");
     }
 
@@ -179,55 +239,236 @@ class CommandInterpreter {
         if (values.size() != table.numColumns()) {
             throw error("inserted row has wrong length");
         }
-        table.add(new Row(values.toArray(new String[values.size()])));
+        Row row = new Row(values.toArray(new String[values.size()]));
+        boolean added;
+        synchronized (table) {
+            added = table.add(row);
+            if (added && _log != null) {
+                _log.inserted(table.name(), row);
+            }
+        }
+        if (added && _log != null) {
+            _log.commit();
+        }
         _input.next(";");
     }
 
-    /** Parse and execute a load statement from the token stream. */
+    /** Parse and execute a load statement from the token stream.  Loads
+     *  the binary form of the table (NAME.dbb) if it is newer than the
+     *  text form (NAME.db), after any stores of it have finished.  Only the
+     *  file's header is read until the table is first used (see
+     *  table(String)). */
     private void loadStatement() {
         _input.next("load");
         String s = name();
-        Table tab = Table.readTable(s);
+        _stores.await(s);
+        Table tab;
+        if (BinaryTable.isNewer(s)) {
+            tab = Table.lazy(s, true);
+            _output.println("Loaded " + s + ".dbb");
+        } else {
+            tab = Table.lazy(s, false);
+            _output.println("Loaded " + s + ".db");
+        }
         _database.put(tab.name(), tab);
-        System.out.println("Loaded " + s + ".db");
+        if (_log != null) {
+            _log.loaded(tab.name());
+        }
         _input.next(";");
     }
 
-    /** Parse and execute a store statement from the token stream. */
+    /** Parse and execute a store statement from the token stream.  A
+     *  store statement ending in "binary" writes NAME.dbb rather than
+     *  NAME.db.  The table is written in the background, as it is now (see
+     *  StoreQueue). */
     private void storeStatement() {
         _input.next("store");
         Table table = tableName();
         _database.put(table.name(), table);
-        table.writeTable(table.name());
-        System.out.println("Stored " + table.name() + ".db");
+        boolean binary = _input.nextIf("binary");
+        _stores.store(table, binary);
+        _output.println("Stored " + table.name()
+                        + (binary ? ".dbb" : ".db"));
+        _input.next(";");
+    }
+
+    /** Parse and execute an analyze statement from the token stream, which
+     *  computes the statistics of a table's current rows for the Planner,
+     *  replacing any it had, and prints a summary of them.  They are
+     *  stored with the table by later stores. */
+    private void analyzeStatement() {
+        _input.next("analyze");
+        Table table = tableName();
+        Statistics stats = Statistics.analyze(table);
+        table.setStatistics(stats);
+        _output.printf("Analyzed %s: %d row(s)%n", table.name(), stats.rows());
+        stats.print(_output);
+        _input.next(";");
+    }
+
+    /** Parse and execute a sync statement from the token stream, which
+     *  waits for all stores to finish. */
+    private void syncStatement() {
+        _input.next("sync");
+        sync();
         _input.next(";");
     }
 
+    /** Wait for all stores to finish, throwing a DBException if any has
+     *  failed. */
+    void sync() {
+        _stores.sync();
+    }
+
     /** Parse and execute a print statement from the token stream. */
     private void printStatement() {
         _input.next("print");
         String s = _input.next();
-        Table tab = _database.get(s);
-        try {
-            String name = tab.name();
-            System.out.println("Contents of " + name + ":");
-            tab.print();
-        } catch (NullPointerException e) {
+        Table tab = table(s);
+        if (tab == null) {
             throw error("table %s does not exist", s);
         }
+        _output.println("Contents of " + tab.name() + ":");
+        tab.print(_output);
         _input.next(";");
 
     }
 
     /**
-     * Parse and execute a select statement from the token stream. fills TABLE
-     * with values from columns COLUMNNAMES
+     * Parse and execute a select statement from the token stream.  Selects
+     * that differ only in their literals share one parsed Query, kept in
+     * _queries.  A select ending in "into outfile 'FILE'" writes its rows
+     * to FILE, in the format of a .db file, instead of printing them.
      */
     private void selectStatement() {
         _input.next("select");
-        Table table = selectClause("fe");
-        System.out.println("Search results: ");
-        table.print();
+        int start = _input.position();
+        ArrayList<String> literals = new ArrayList<>();
+        String key = parameterizedText(literals);
+        Query query = key == null ? null : _queries.get(key);
+        if (query != null && query.isCurrent(_database)) {
+            query.bind(literals);
+        } else {
+            _input.rewind(start);
+            query = query();
+            if (key != null) {
+                _queries.put(key, query);
+            }
+        }
+        if (_input.nextIf("into")) {
+            _input.next("outfile");
+            String file = literal();
+            ResultWriter out = ResultWriter.file(file);
+            try {
+                Project rows = query.rows();
+                out.writeHeader(query.titles(), rows.types());
+                writeResults(rows, out);
+            } finally {
+                out.close();
+            }
+            _output.printf("Wrote %d %s to %s%n", out.rows(),
+                           out.rows() == 1 ? "row" : "rows", file);
+        } else {
+            printResults(query);
+        }
+        _input.next(";");
+    }
+
+    /**
+     * Read the tokens of the rest of the current statement, up to its
+     * terminating semicolon, returning them separated by blanks, but with
+     * each literal replaced by "?" and its value appended to LITERALS.
+     * Returns null if the statement already contains a "?", has an into
+     * clause, or is not terminated.
+     */
+    private String parameterizedText(List<String> literals) {
+        StringBuilder text = new StringBuilder();
+        while (!_input.nextIs(";")) {
+            String token = _input.next();
+            if (token.equals("?") || token.equals("into")
+                || token.equals("*EOF*")) {
+                return null;
+            }
+            if (token.startsWith("'")) {
+                literals.add(token.substring(1, token.length() - 1));
+                token = "?";
+            }
+            text.append(token).append(' ');
+        }
+        return text.toString();
+    }
+
+    /** Print the distinct rows of QUERY, as the results of a select. */
+    private void printResults(Query query) {
+        _output.println("Search results: ");
+        ResultWriter out = ResultWriter.output(_output);
+        try {
+            writeResults(query.rows(), out);
+        } finally {
+            out.flush();
+        }
+    }
+
+    /** Write the distinct rows produced by ROWS to OUT, closing ROWS even
+     *  if this fails. */
+    private void writeResults(Project rows, ResultWriter out) {
+        try {
+            Distinct distinct = new Distinct(rows);
+            while (distinct.next()) {
+                out.writeRow(distinct.row());
+            }
+        } finally {
+            rows.close();
+        }
+    }
+
+    /**
+     * Parse and execute a prepare statement from the token stream:
+     * "prepare NAME as SELECT-CLAUSE;", where the select clause may use
+     * "?" in place of literals.
+     */
+    private void prepareStatement() {
+        _input.next("prepare");
+        String name = name();
+        _input.next("as");
+        _input.next("select");
+        Query query = query();
+        _prepared.put(name, query);
+        _input.next(";");
+    }
+
+    /**
+     * Parse and execute an execute statement from the token stream:
+     * "execute NAME(LITERAL, ...);", which runs the prepared statement NAME
+     * with the given literals as the values of its parameters, in order.
+     * If a table it selects from has since been replaced, the statement
+     * is prepared again first.
+     */
+    private void executeStatement() {
+        _input.next("execute");
+        String name = name();
+        Query query = _prepared.get(name);
+        if (query == null) {
+            throw error("no prepared statement named %s", name);
+        }
+        ArrayList<String> values = new ArrayList<>();
+        if (_input.nextIf("(") && !_input.nextIf(")")) {
+            values.add(literal());
+            while (_input.nextIf(",")) {
+                values.add(literal());
+            }
+            _input.next(")");
+        }
+        if (!query.isCurrent(_database)) {
+            CommandInterpreter parser =
+                new CommandInterpreter(_database,
+                                       new StringReader(query.text() + " ;"),
+                                       null);
+            query = parser.query();
+            _prepared.put(name, query);
+        }
+        query.bind(values);
+        printResults(query);
         _input.next(";");
     }
 
@@ -238,11 +479,13 @@ class CommandInterpreter {
     Table tableDefinition(String name) {
         Table ret;
         ArrayList<String> titStr = new ArrayList<String>();
+        ArrayList<ColumnType> types = new ArrayList<ColumnType>();
         _com = 0;
         if (_input.nextIf("(")) {
             while (!_input.nextIf(")")) {
                 String s = removeCom(colName());
                 titStr.add(s);
+                types.add(columnType());
                 if (_com == 1 && _input.peek().equals(")")) {
                     throw error("check commas");
                 }
@@ -251,7 +494,8 @@ class CommandInterpreter {
                 }
                 _com = 0;
             }
-            ret = new Table(name, titStr);
+            ret = new Table(name, titStr.toArray(new String[0]),
+                            types.toArray(new ColumnType[0]));
         } else {
             if (_input.nextIf("as")) {
                 _input.next("select");
@@ -264,12 +508,53 @@ class CommandInterpreter {
         return ret;
     }
 
+    /**
+     * Parse the optional type that follows a column name in a table
+     * definition, returning it, or STRING if there is none.
+     */
+    ColumnType columnType() {
+        if (_com == 1) {
+            return ColumnType.STRING;
+        }
+        String word = _input.peek();
+        if (word.endsWith(",")) {
+            word = word.substring(0, word.length() - 1);
+        }
+        ColumnType type = ColumnType.named(word);
+        if (type == null) {
+            return ColumnType.STRING;
+        }
+        removeCom(_input.next());
+        return type;
+    }
+
     /**
      * Parse and execute a select clause from the token stream, returning the
      * resulting table, with name TABLENAME.
      */
     Table selectClause(String tableName) {
-        Table iter2 = null;
+        Query query = query();
+        Project rows = query.rows();
+        Table table = new Table(tableName,
+                                query.titles().toArray(new String[0]),
+                                rows.types());
+        try {
+            while (rows.next()) {
+                table.add(rows.row());
+            }
+        } finally {
+            rows.close();
+        }
+        return table;
+    }
+
+    /**
+     * Parse a select clause, whose initial "select" has been read, from
+     * the token stream, returning it as a Query.
+     */
+    Query query() {
+        int start = _input.position();
+        _parameters = new ArrayList<>();
         ArrayList<Condition> cond = new ArrayList<Condition>();
         ArrayList<Column> columnCopy = new ArrayList<Column>();
         while (true) {
@@ -300,14 +585,14 @@ class CommandInterpreter {
                 ArrayList<TableIterator> iter = new ArrayList<TableIterator>();
                 Table iter1 = tableName();
                 iter.add(iter1.tableIterator());
-                if (!_input.peek().equals("where")
-                        && !_input.peek().equals(";")) {
-                    iter2 = tableName();
-                    iter.add(iter2.tableIterator());
+                while (!_input.peek().equals("where")
+                        && !_input.peek().equals(";")
+                        && !_input.peek().equals("into")) {
                     if (_com != 1) {
                         throw error("Use commas to separate columns");
                     }
                     _com = 0;
+                    iter.add(tableName().tableIterator());
                 }
                 if (_input.peek().equals("where")) {
                     _input.next();
@@ -316,9 +601,10 @@ class CommandInterpreter {
                 for (int i = 0; i < columnCopy.size(); i++) {
                     columnCopy.get(i).resolve(iter);
                 }
-                Table table = new Table(tableName, columnNames);
-                select(table, columnCopy, iter, cond);
-                return table;
+                Table.checkTitles(columnNames.toArray(new String[0]));
+                return new Query(iter, cond, columnCopy, columnNames,
+                                 _parameters,
+                                 _input.text(start, _input.position()));
             }
         }
     }
@@ -345,7 +631,7 @@ class CommandInterpreter {
         if (colN.indexOf(".") != -1) {
             int pd = colN.indexOf(".");
             String name = colN.substring(0, pd);
-            Table tab = _database.get(name);
+            Table tab = table(name);
             if (tab == null) {
                 throw error("Table %s does not exist", name);
             }
@@ -370,13 +656,30 @@ class CommandInterpreter {
      */
     Table tableName() {
         String name = name();
-        Table table = _database.get(name);
+        Table table = table(name);
         if (table == null) {
             throw error("unknown table: %s", name);
         }
         return table;
     }
 
+    /**
+     * Return the table named NAME in the database, or null if there is none.
+     * If it was loaded lazily and has not been used since, its rows are read
+     * now, and it is replaced in the database by the result.
+     */
+    private Table table(String name) {
+        Table table = _database.get(name);
+        if (table == null) {
+            return null;
+        }
+        Table contents = table.contents();
+        if (contents != table) {
+            _database.replace(name, table, contents);
+        }
+        return contents;
+    }
+
     /**
      * Parse a literal and return the string it represents (i.e., without single
      * quotes).
@@ -393,7 +696,7 @@ class CommandInterpreter {
      */
     ArrayList<Condition> conditionClause(List<TableIterator> iterators) {
         ArrayList<Condition> cond = new ArrayList<Condition>();
-        while (!_input.peek().equals(";")) {
+        while (!_input.peek().equals(";") && !_input.peek().equals("into")) {
             cond.add(condition(iterators));
             if (_input.peek().equals("and")) {
                 _input.next();
@@ -413,13 +716,20 @@ class CommandInterpreter {
         c1.resolve(iterators);
         String rel = removeCom(_input.next());
         String next = _input.peek();
-        if (next.indexOf("'") == 0) {
+        if (next.equals("?")) {
+            _input.next();
+            Parameter param = new Parameter(null);
+            _parameters.add(param);
+            return new Condition(c1, rel, param);
+        } else if (next.indexOf("'") == 0) {
             s = _input.next();
             if (!s.substring(s.length() - 1).equals(new String("'"))) {
                 throw error("Needs quotations after: %s if not a column", s);
             }
             s = s.substring(1, s.length() - 1);
-            return new Condition(c1, rel, s);
+            Parameter param = new Parameter(s);
+            _parameters.add(param);
+            return new Condition(c1, rel, param);
         } else {
             c2 = columnSelector();
             c2.resolve(iterators);
@@ -427,45 +737,6 @@ class CommandInterpreter {
         }
     }
 
-    /**
-     * Fill TABLE with the result of selecting COLUMNS from the rows returned by
-     * ITERATORS that satisfy CONDITIONS. ITERATORS must have size 1 or 2. All
-     * selected Columns and all Columns mentioned in CONDITIONS must be resolved
-     * to iterators listed among ITERATORS. The number of COLUMNS must equal
-     * TABLE.columns().
-     */
-    private void select(Table table, ArrayList<Column> columns,
-            List<TableIterator> iterators, List<Condition> conditions) {
-        outerloop: while (true) {
-            try {
-                if (iterators.size() == 1) {
-                    if (Condition.test(conditions)) {
-                        table.add(Row.make(columns));
-                    }
-                    iterators.get(0).next();
-                } else if (iterators.size() == 2) {
-                    if (Condition.test(conditions)) {
-                        table.add(Row.make(columns));
-                        iterators.get(1).next();
-                    } else {
-                        iterators.get(1).next();
-                    }
-                }
-            } catch (IndexOutOfBoundsException e) {
-                if (iterators.size() == 1) {
-                    break outerloop;
-                } else if (iterators.size() == 2) {
-                    iterators.get(1).reset();
-                    try {
-                        iterators.get(0).next();
-                    } catch (IndexOutOfBoundsException f) {
-                        break outerloop;
-                    }
-                }
-            }
-        }
-    }
-
     /** Advance the input past the next semicolon. */
     void skipCommand() {
         while (true) {
@@ -495,6 +766,39 @@ class CommandInterpreter {
     private Tokenizer _input;
     /** Database containing all tables. */
     private Map<String, Table> _database;
+    /** Where results are written. */
+    private final PrintStream _output;
+    /** Log of changes to tables, or null if changes are not logged. */
+    private final WriteAheadLog _log;
+    /** Writes stored tables in the background. */
+    private final StoreQueue _stores;
     /** Keeps track of whether or not comma was added. */
     private int _com;
+    /** The Parameters of the select clause being parsed. */
+    private ArrayList<Parameter> _parameters;
+    /** Prepared statements, by name. */
+    private HashMap<String, Query> _prepared;
+    /** Recently parsed select statements, keyed by their text as returned
+     *  by parameterizedText. */
+    private QueryCache _queries;
+
+    /** Number of select statements kept in _queries. */
+    private static final int QUERY_CACHE_SIZE = 64;
+
+    /** A map that holds at most QUERY_CACHE_SIZE entries, dropping the
+     *  least recently used entry to make room for a new one. */
+    private static class QueryCache extends LinkedHashMap<String, Query> {
+        /** An empty QueryCache. */
+        QueryCache() {
+            super(2 * QUERY_CACHE_SIZE, LOAD_FACTOR, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Query> e) {
+            return size() > QUERY_CACHE_SIZE;
+        }
+
+        /** Load factor of the underlying hash table. */
+        private static final float LOAD_FACTOR = 0.75f;
+    }
 }
@@ -1,6 +1,10 @@
 package db61b;
 import static db61b.Utils.error;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
 
 /**
  * Represents a single 'where' condition in a 'select' command.
@@ -13,7 +17,7 @@ class Condition {
      * whether the relation allows the left value to be greater than the right
      * (GT), equal to it (EQ), or less than it (LT).
      */
-    private static final int GT = 1, EQ = 2, LT = 4, NE = 6, GE = 3, LE = 5;
+    private static final int GT = 1, EQ = 2, LT = 4, NE = 5, GE = 3, LE = 6;
 
     /**
      * A Condition representing COL1 RELATION COL2, where COL1 and COL2 are
@@ -56,25 +60,358 @@ class Condition {
         this(col1, relation, new Literal(val2));
     }
 
+    /** A Condition representing COL1 _RELATION COL2, where _RELATION is
+     *  encoded as for _relation. */
+    private Condition(Column col1, int relation, Column col2) {
+        _col1 = col1;
+        _relation = relation;
+        _col2 = col2;
+    }
+
+    /** Return a copy of me whose Columns are resolved to IT instead of
+     *  the TableIterator over the same Table to which they are now
+     *  resolved.  I must be local to that iterator (see isLocalTo). */
+    Condition moveTo(TableIterator it) {
+        return new Condition(_col1.moveTo(it), _relation, _col2.moveTo(it));
+    }
+
     /**
      * Assuming that ROWS are rows from the respective tables from which my
      * columns are selected, returns the result of performing the test I denote.
      */
     boolean test() {
+        int cmp = type().compare(_col1.value(), _col2.value());
+        switch (_relation) {
+        case LT:
+            return cmp < 0;
+        case GT:
+            return cmp > 0;
+        case LE:
+            return cmp <= 0;
+        case GE:
+            return cmp >= 0;
+        case EQ:
+            return cmp == 0;
+        default:
+            return cmp != 0;
+        }
+    }
+
+    /** Return the type in which my values are compared.  My columns must
+     *  be resolved. */
+    private ColumnType type() {
+        return ColumnType.common(_col1.type(), _col2.type());
+    }
+
+    /** Return true iff each of my columns is resolved to IT or is a
+     *  Literal, so that I can be tested on IT's rows alone. */
+    boolean isLocalTo(TableIterator it) {
+        return (_col1.source() == it || _col1.source() == null)
+            && (_col2.source() == it || _col2.source() == null);
+    }
+
+    /** Return true iff each of my columns is resolved to one of ITS or is
+     *  a Literal. */
+    boolean isCoveredBy(List<TableIterator> its) {
+        return (_col1.source() == null || its.contains(_col1.source()))
+            && (_col2.source() == null || its.contains(_col2.source()));
+    }
+
+    /** If I compare a column of IT's table that has an Index with a
+     *  Literal, using any relation but '!=', return the numbers, in
+     *  increasing order, of the rows of that table seen by IT that satisfy
+     *  me, found through the index.  Otherwise, return null. */
+    int[] indexLookup(TableIterator it) {
+        Column col, lit;
+        int relation;
+        if (_col1.source() == it && _col2 instanceof Literal) {
+            col = _col1;
+            lit = _col2;
+            relation = _relation;
+        } else if (_col2.source() == it && _col1 instanceof Literal) {
+            col = _col2;
+            lit = _col1;
+            relation = converse(_relation);
+        } else {
+            return null;
+        }
+        Index index = it.table().index(col.index());
+        if (index == null || relation == NE) {
+            return null;
+        }
+        String value = col.type().canonical(lit.value());
+        int limit = it.size();
+        switch (relation) {
+        case LT:
+            return index.rows(null, false, value, false, limit);
+        case LE:
+            return index.rows(null, false, value, true, limit);
+        case GT:
+            return index.rows(value, false, null, false, limit);
+        case GE:
+            return index.rows(value, true, null, false, limit);
+        default:
+            return index.rows(value, true, value, true, limit);
+        }
+    }
+
+    /** Return true iff I am an equality between a column resolved to one
+     *  of ITS1 and a column resolved to one of ITS2 (in either order). */
+    boolean isEquiJoin(List<TableIterator> its1, List<TableIterator> its2) {
+        return _relation == EQ && joins(its1, its2);
+    }
+
+    /** Return true iff I am an ordering comparison (<, <=, >, or >=)
+     *  between a column resolved to one of ITS1 and a column resolved to
+     *  one of ITS2 (in either order). */
+    boolean isRangeJoin(List<TableIterator> its1, List<TableIterator> its2) {
+        return (_relation == LT || _relation == LE
+                || _relation == GT || _relation == GE)
+            && joins(its1, its2);
+    }
+
+    /** Return true iff one of my columns is resolved to one of ITS1 and
+     *  the other to one of ITS2. */
+    boolean joins(List<TableIterator> its1, List<TableIterator> its2) {
+        TableIterator src1 = _col1.source(), src2 = _col2.source();
+        return src1 != null && src2 != null
+            && (its1.contains(src1) && its2.contains(src2)
+                || its1.contains(src2) && its2.contains(src1));
+    }
+
+    /** Return true iff I am satisfied when the value of my column that
+     *  is resolved to LEFT is less than that of my other column. */
+    boolean admitsLess(TableIterator left) {
+        int less = _col1.source() == left ? LT : GT;
+        return (_relation & less) != 0;
+    }
+
+    /** Return true iff I am satisfied when my two values are equal. */
+    boolean admitsEqual() {
+        return (_relation & EQ) != 0;
+    }
+
+    /** Return whichever of my two columns is resolved to one of ITS, or
+     *  null if neither is. */
+    Column columnFrom(List<TableIterator> its) {
+        if (its.contains(_col1.source())) {
+            return _col1;
+        } else if (its.contains(_col2.source())) {
+            return _col2;
+        }
+        return null;
+    }
+
+    /** Return RELATION with its operands exchanged (e.g., > for <). */
+    private static int converse(int relation) {
+        return (relation & EQ) | (relation & GT) << 2 | (relation & LT) >> 2;
+    }
+
+    /**
+     * Return a BooleanSupplier that performs the same test as test(), but
+     * specialized for my relation and kinds of operands: the values of
+     * Literals are read once, here, and each column value is read directly
+     * from the TableIterator to which it is resolved.  Values of typed
+     * columns are compared in their primitive forms.
+     */
+    BooleanSupplier compile() {
+        if (_col1 instanceof Literal && _col2 instanceof Literal) {
+            boolean result = test();
+            return () -> result;
+        } else if (type() != ColumnType.STRING) {
+            return relate(_relation, typedCompare());
+        } else if (_col2 instanceof Literal) {
+            return compile(_col1.source(), _col1.index(), _relation,
+                           _col2.value());
+        } else if (_col1 instanceof Literal) {
+            return compile(_col2.source(), _col2.index(),
+                           converse(_relation), _col1.value());
+        }
+        TableIterator it1 = _col1.source(), it2 = _col2.source();
+        int k1 = _col1.index(), k2 = _col2.index();
         switch (_relation) {
         case LT:
-            return _col1.value().compareTo(_col2.value()) < 0;
+            return () -> it1.value(k1).compareTo(it2.value(k2)) < 0;
         case GT:
-            return _col1.value().compareTo(_col2.value()) > 0;
+            return () -> it1.value(k1).compareTo(it2.value(k2)) > 0;
         case LE:
-            return _col1.value().compareTo(_col2.value()) <= 0;
+            return () -> it1.value(k1).compareTo(it2.value(k2)) <= 0;
         case GE:
-            return _col1.value().compareTo(_col2.value()) >= 0;
+            return () -> it1.value(k1).compareTo(it2.value(k2)) >= 0;
         case EQ:
-            return _col1.value().compareTo(_col2.value()) == 0;
+            return () -> it1.value(k1).equals(it2.value(k2));
         default:
-            return _col1.value().compareTo(_col2.value()) != 0;
+            return () -> !it1.value(k1).equals(it2.value(k2));
+        }
+    }
+
+    /** Return a supplier of the comparison of my two values, which are
+     *  not both Literals, in my non-STRING type().  Literals are converted
+     *  to primitive form once, here. */
+    private IntSupplier typedCompare() {
+        ColumnType type = type();
+        TableIterator it1 = _col1.source(), it2 = _col2.source();
+        int k1 = _col1.index(), k2 = _col2.index();
+        if (type.isIntegral()) {
+            if (_col1 instanceof Literal) {
+                long x = type.toLong(_col1.value());
+                return () -> Long.compare(x, it2.longValue(k2));
+            } else if (_col2 instanceof Literal) {
+                long y = type.toLong(_col2.value());
+                return () -> Long.compare(it1.longValue(k1), y);
+            }
+            return () -> Long.compare(it1.longValue(k1), it2.longValue(k2));
+        }
+        if (_col1 instanceof Literal) {
+            double x = type.toDouble(_col1.value());
+            return () -> Double.compare(x, it2.doubleValue(k2));
+        } else if (_col2 instanceof Literal) {
+            double y = type.toDouble(_col2.value());
+            return () -> Double.compare(it1.doubleValue(k1), y);
+        }
+        return () -> Double.compare(it1.doubleValue(k1),
+                                    it2.doubleValue(k2));
+    }
+
+    /** Return a test of whether the result of CMP stands in RELATION to
+     *  0. */
+    private static BooleanSupplier relate(int relation, IntSupplier cmp) {
+        switch (relation) {
+        case LT:
+            return () -> cmp.getAsInt() < 0;
+        case GT:
+            return () -> cmp.getAsInt() > 0;
+        case LE:
+            return () -> cmp.getAsInt() <= 0;
+        case GE:
+            return () -> cmp.getAsInt() >= 0;
+        case EQ:
+            return () -> cmp.getAsInt() == 0;
+        default:
+            return () -> cmp.getAsInt() != 0;
+        }
+    }
+
+    /** Return a test of whether column #K of the current row of IT stands
+     *  in RELATION to the value LIT. */
+    private static BooleanSupplier compile(TableIterator it, int k,
+                                           int relation, String lit) {
+        switch (relation) {
+        case LT:
+            return () -> it.value(k).compareTo(lit) < 0;
+        case GT:
+            return () -> it.value(k).compareTo(lit) > 0;
+        case LE:
+            return () -> it.value(k).compareTo(lit) <= 0;
+        case GE:
+            return () -> it.value(k).compareTo(lit) >= 0;
+        case EQ:
+            return () -> lit.equals(it.value(k));
+        default:
+            return () -> !lit.equals(it.value(k));
+        }
+    }
+
+    /** Return an estimate of the fraction of rows I let through, as a rank
+     *  from most selective (0) to least: comparisons with literals before
+     *  comparisons between columns, and within each, equalities before
+     *  ordering comparisons before inequalities. */
+    int selectivityRank() {
+        int rank = _relation == EQ ? 0 : _relation == NE ? 2 : 1;
+        if (_col1 instanceof Literal || _col2 instanceof Literal) {
+            return rank;
+        }
+        return rank + 3;
+    }
+
+    /** Return an estimate of the fraction of combinations of rows that
+     *  satisfy me.  If I compare a column of a table that has Statistics
+     *  with a Literal, it is estimated from them.  Otherwise, nothing is
+     *  assumed about the values compared: it is 1/10 for an equality, 1/3
+     *  for an ordering comparison, and 9/10 for an inequality. */
+    double selectivity() {
+        double estimate = estimatedSelectivity();
+        if (estimate >= 0) {
+            return estimate;
+        }
+        switch (_relation) {
+        case EQ:
+            return EQ_SELECTIVITY;
+        case NE:
+            return 1 - EQ_SELECTIVITY;
+        default:
+            return RANGE_SELECTIVITY;
+        }
+    }
+
+    /** Return my selectivity as estimated from the Statistics of the
+     *  table of my non-Literal column, or -1 if I do not compare such a
+     *  column with a Literal, in the column's own type. */
+    private double estimatedSelectivity() {
+        Column col, lit;
+        int relation;
+        if (_col2 instanceof Literal && _col1.source() != null) {
+            col = _col1;
+            lit = _col2;
+            relation = _relation;
+        } else if (_col1 instanceof Literal && _col2.source() != null) {
+            col = _col2;
+            lit = _col1;
+            relation = converse(_relation);
+        } else {
+            return -1;
+        }
+        Statistics stats = col.source().table().statistics();
+        if (stats == null || type() != col.type()) {
+            return -1;
+        }
+        int k = col.index();
+        String value;
+        try {
+            value = lit.value();
+            value = value.isEmpty() ? value : col.type().canonical(value);
+        } catch (DBException e) {
+            return -1;
+        }
+        switch (relation) {
+        case EQ:
+            return stats.equalFraction(k, value);
+        case NE:
+            return 1 - stats.equalFraction(k, value);
+        case LT:
+            return stats.lessFraction(k, value, false);
+        case LE:
+            return stats.lessFraction(k, value, true);
+        case GT:
+            return 1 - stats.lessFraction(k, value, true);
+        default:
+            return 1 - stats.lessFraction(k, value, false);
+        }
+    }
+
+    /** Estimated selectivities of equalities and ordering comparisons. */
+    private static final double EQ_SELECTIVITY = 0.1,
+        RANGE_SELECTIVITY = 1.0 / 3;
+
+    /** Return a BooleanSupplier that is true iff all CONDITIONS are
+     *  satisfied.  The conditions are compiled as for compile() and tested
+     *  in order of increasing selectivity(), and then selectivityRank(),
+     *  so that those most likely to fail are tried first. */
+    static BooleanSupplier compile(List<Condition> conditions) {
+        ArrayList<Condition> ordered = new ArrayList<>(conditions);
+        ordered.sort(Comparator.comparingDouble(Condition::selectivity)
+                     .thenComparingInt(Condition::selectivityRank));
+        BooleanSupplier result = null;
+        for (int i = ordered.size() - 1; i >= 0; i--) {
+            BooleanSupplier first = ordered.get(i).compile();
+            if (result == null) {
+                result = first;
+            } else {
+                BooleanSupplier rest = result;
+                result = () -> first.getAsBoolean() && rest.getAsBoolean();
+            }
         }
+        return result == null ? () -> true : result;
     }
 
     /** Return true iff all CONDITIONS are satified. */
@@ -0,0 +1,165 @@
+package db61b;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+
+/** Passes on the Rows of a Project, omitting any equal to one already
+ *  produced.  Keeps only the Rows it has produced, as long as they fit in
+ *  its memory budget.  Once they do not, it writes them, and the rest of
+ *  its input, to spill files partitioned on the Rows' hash codes (see
+ *  SpillFile), and then processes the partitions one at a time in the
+ *  same way.  Rows after that point therefore come out grouped by
+ *  partition, rather than in input order.
+ *  @author JuKyung Choi
+ */
+class Distinct {
+
+    /** Approximate number of bytes taken by each Row in _seen, apart from
+     *  its values, and by each value, apart from its characters. */
+    private static final int ROW_OVERHEAD = 72, VALUE_OVERHEAD = 48;
+
+    /** The distinct Rows of INPUT, using at most SpillFile.WORK_MEMORY
+     *  bytes to remember them. */
+    Distinct(Project input) {
+        this(input, SpillFile.WORK_MEMORY);
+    }
+
+    /** The distinct Rows of INPUT, using at most about BUDGET bytes to
+     *  remember them. */
+    Distinct(Project input, long budget) {
+        _input = input;
+        _budget = budget;
+        _seen = new HashSet<>();
+        _pending = new ArrayDeque<>();
+    }
+
+    /** Move to my next Row, returning false if there are no more. */
+    boolean next() {
+        while (true) {
+            if (!read()) {
+                if (!nextSource()) {
+                    return false;
+                }
+            } else if (_partitions != null) {
+                write(_next, _nextProduced);
+            } else if (_seen.add(_next)) {
+                _used += footprint(_next);
+                if (_used > _budget && _level <= SpillFile.MAX_LEVEL) {
+                    spill();
+                }
+                if (!_nextProduced) {
+                    _row = _next;
+                    return true;
+                }
+            }
+        }
+    }
+
+    /** Return my current Row. */
+    Row row() {
+        return _row;
+    }
+
+    /** Read the next Row from my current source into _next, and whether it
+     *  has already been produced into _nextProduced, returning false if
+     *  there are no more. */
+    private boolean read() {
+        if (_source == null) {
+            if (_inputDone || !_input.next()) {
+                _inputDone = true;
+                return false;
+            }
+            _next = _input.row();
+            _nextProduced = false;
+            return true;
+        }
+        if (!_source.nextRecord()) {
+            return false;
+        }
+        _nextProduced = _source.readInt() != 0;
+        String[] data = new String[_source.readInt()];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = _source.readString();
+        }
+        _next = new Row(data);
+        return true;
+    }
+
+    /** Having read all of my current source, start on the next partition,
+     *  returning false if there is none. */
+    private boolean nextSource() {
+        if (_partitions != null) {
+            for (SpillFile partition : _partitions) {
+                _pending.push(partition);
+            }
+            _partitions = null;
+        }
+        _seen = new HashSet<>();
+        _used = 0;
+        if (_pending.isEmpty()) {
+            return false;
+        }
+        _source = _pending.pop();
+        _level = _source.level() + 1;
+        return true;
+    }
+
+    /** Write the Rows in _seen to new partitions at level _level, and
+     *  forget them. */
+    private void spill() {
+        _partitions = SpillFile.partitions(_level);
+        for (Row row : _seen) {
+            write(row, true);
+        }
+        _seen = new HashSet<>();
+        _used = 0;
+    }
+
+    /** Write ROW to its partition, noting whether it has been PRODUCED. */
+    private void write(Row row, boolean produced) {
+        SpillFile file =
+            _partitions[SpillFile.partition(row.hashCode(), _level)];
+        file.writeInt(produced ? 1 : 0);
+        file.writeInt(row.size());
+        for (int i = 0; i < row.size(); i++) {
+            file.writeString(row.get(i));
+        }
+        file.endRecord();
+    }
+
+    /** Return the approximate number of bytes taken by ROW in _seen. */
+    private static long footprint(Row row) {
+        long bytes = ROW_OVERHEAD;
+        for (int i = 0; i < row.size(); i++) {
+            bytes += VALUE_OVERHEAD + row.get(i).length();
+        }
+        return bytes;
+    }
+
+    /** Source of Rows. */
+    private final Project _input;
+    /** Approximate number of bytes that _seen may take. */
+    private final long _budget;
+    /** True once _input has run out. */
+    private boolean _inputDone;
+    /** The partition being processed, or null while reading _input. */
+    private SpillFile _source;
+    /** Level at which the Rows of _source are partitioned, if they must
+     *  be. */
+    private int _level;
+    /** The partitions into which the rest of _source is being written, or
+     *  null if it fits in memory so far. */
+    private SpillFile[] _partitions;
+    /** Partitions not yet processed. */
+    private final ArrayDeque<SpillFile> _pending;
+    /** The Rows from _source produced so far, or that were produced
+     *  before they were spilled. */
+    private HashSet<Row> _seen;
+    /** Approximate number of bytes taken by _seen. */
+    private long _used;
+    /** The Row last read, and whether it had already been produced. */
+    private Row _next;
+    private boolean _nextProduced;
+    /** The current Row. */
+    private Row _row;
+}
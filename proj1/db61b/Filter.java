@@ -0,0 +1,43 @@
+package db61b;
+
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/** An Operator that passes on just those results of its input that
+ *  satisfy a list of Conditions.
+ *  @author JuKyung Choi
+ */
+class Filter extends Operator {
+
+    /** The results of INPUT that satisfy all of CONDITIONS, whose Columns
+     *  must be resolved to INPUT's iterators or be Literals. */
+    Filter(Operator input, List<Condition> conditions) {
+        _input = input;
+        _test = Condition.compile(conditions);
+    }
+
+    @Override
+    boolean next() {
+        while (_input.next()) {
+            if (_test.getAsBoolean()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    void reset() {
+        _input.reset();
+    }
+
+    @Override
+    List<TableIterator> iterators() {
+        return _input.iterators();
+    }
+
+    /** Source of candidate results. */
+    private final Operator _input;
+    /** Test of the conditions a result must satisfy. */
+    private final BooleanSupplier _test;
+}
@@ -0,0 +1,245 @@
+package db61b;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/** An Operator that produces the combinations of results of two inputs
+ *  that agree on a pair of key columns.  On the first call of next(), all
+ *  results of the build input are read into a hash table keyed on its key
+ *  column; each result of the probe input then looks up its matches.
+ *  If the hash table grows past SpillFile.WORK_MEMORY, it becomes a grace
+ *  hash join: the results of both inputs, saved as their keys and row
+ *  numbers, are partitioned on their keys into spill files, and each
+ *  partition of the build input is then joined with the same partition of
+ *  the probe input as above (being partitioned again if it is still too
+ *  large).  The combinations then come out grouped by partition.
+ *  @author JuKyung Choi
+ */
+class HashJoin extends Operator {
+
+    /** The combinations of a result of BUILD and a result of PROBE for
+     *  which BUILDKEY and PROBEKEY, resolved to their respective inputs'
+     *  iterators, have equal values. */
+    HashJoin(Operator build, Column buildKey, Operator probe,
+             Column probeKey) {
+        _build = build;
+        _buildKey = buildKey;
+        _probe = probe;
+        _probeKey = probeKey;
+        _iterators = new ArrayList<>(build.iterators());
+        _iterators.addAll(probe.iterators());
+        _pending = new ArrayDeque<>();
+        reset();
+    }
+
+    @Override
+    boolean next() {
+        if (_rows == null) {
+            _probing = build(null, null, 0);
+        }
+        while (_match < 0) {
+            if (!nextProbe()) {
+                return false;
+            }
+            Integer head = _heads.get(_key);
+            _match = head == null ? -1 : head;
+        }
+        _rows.restore(_match);
+        _match = _chain[_match];
+        return true;
+    }
+
+    /** Read the results of _build into _rows, _heads, and _chain, and make
+     *  the results of _probe the ones to match against them, returning
+     *  true.  If BUILD is not null, read the build results saved in it
+     *  instead, and use the probe results saved in PROBE.  But if the
+     *  build results grow past the memory budget, and LEVEL is at most
+     *  SpillFile.MAX_LEVEL, instead partition them and the probe results
+     *  into spill files at level LEVEL, add those to _pending, and return
+     *  false. */
+    private boolean build(SpillFile build, SpillFile probe, int level) {
+        List<TableIterator> buildIts = _build.iterators();
+        _rows = new RowNumbers(buildIts);
+        _heads = new HashMap<>();
+        _chain = new int[INITIAL_SIZE];
+        _used = 0;
+        if (build == null) {
+            _build.reset();
+        }
+        SpillFile[] buildParts = null;
+        while (read(build, _build, _buildKey)) {
+            if (buildParts != null) {
+                write(buildParts, level, buildIts);
+                continue;
+            }
+            add();
+            if (_used > SpillFile.WORK_MEMORY && level <= SpillFile.MAX_LEVEL) {
+                buildParts = SpillFile.partitions(level);
+                spill(buildParts, level);
+            }
+        }
+        if (buildParts == null) {
+            _probeSource = probe;
+            return true;
+        }
+        _spilled = true;
+        SpillFile[] probeParts = SpillFile.partitions(level);
+        while (read(probe, _probe, _probeKey)) {
+            write(probeParts, level, _probe.iterators());
+        }
+        for (int p = 0; p < SpillFile.PARTITIONS; p++) {
+            _pending.push(new SpillFile[] { buildParts[p], probeParts[p] });
+        }
+        return false;
+    }
+
+    /** Add the current result of _build, whose key is _key, to _rows,
+     *  _heads, and _chain. */
+    private void add() {
+        int k = _rows.size();
+        _rows.add();
+        if (k == _chain.length) {
+            _chain = Arrays.copyOf(_chain, 2 * k);
+        }
+        Integer head = _heads.put(_key, k);
+        _chain[k] = head == null ? -1 : head;
+        _used += ROW_BYTES * (_build.iterators().size() + 1);
+        if (head == null) {
+            _used += KEY_OVERHEAD + _key.length();
+        }
+    }
+
+    /** Write the build results in _rows to PARTS, the partitions at level
+     *  LEVEL, and forget them. */
+    private void spill(SpillFile[] parts, int level) {
+        List<TableIterator> its = _build.iterators();
+        for (String key : _heads.keySet()) {
+            _key = key;
+            for (int k = _heads.get(key); k >= 0; k = _chain[k]) {
+                _rows.restore(k);
+                write(parts, level, its);
+            }
+        }
+        _rows = new RowNumbers(its);
+        _heads = new HashMap<>();
+        _chain = new int[INITIAL_SIZE];
+    }
+
+    /** Move to the next probe result, setting _key to its key, and
+     *  moving to the next partition when one runs out.  Return false if
+     *  there are no more. */
+    private boolean nextProbe() {
+        while (!_probing || !read(_probeSource, _probe, _probeKey)) {
+            _probing = false;
+            if (_pending.isEmpty()) {
+                return false;
+            }
+            SpillFile[] pair = _pending.pop();
+            _probing = build(pair[0], pair[1], pair[0].level() + 1);
+        }
+        return true;
+    }
+
+    /** Move to the next result of OP, setting _key to its value of KEY,
+     *  or, if FILE is not null, move OP's iterators to the next result
+     *  saved in FILE, setting _key to its saved key.  Return false if
+     *  there are no more. */
+    private boolean read(SpillFile file, Operator op, Column key) {
+        if (file == null) {
+            if (!op.next()) {
+                return false;
+            }
+            _key = key.value();
+            return true;
+        }
+        if (!file.nextRecord()) {
+            return false;
+        }
+        _key = file.readString();
+        for (TableIterator it : op.iterators()) {
+            it.setRow(file.readInt());
+        }
+        return true;
+    }
+
+    /** Save _key and the current rows of ITS in its partition among
+     *  PARTS, the partitions at level LEVEL. */
+    private void write(SpillFile[] parts, int level, List<TableIterator> its) {
+        SpillFile file = parts[SpillFile.partition(_key.hashCode(), level)];
+        file.writeString(_key);
+        for (TableIterator it : its) {
+            file.writeInt(it.rowNumber());
+        }
+        file.endRecord();
+    }
+
+    @Override
+    void reset() {
+        if (_spilled) {
+            while (!_pending.isEmpty()) {
+                for (SpillFile file : _pending.pop()) {
+                    file.close();
+                }
+            }
+            _rows = null;
+            _spilled = false;
+        }
+        _probe.reset();
+        _probeSource = null;
+        _probing = true;
+        _match = -1;
+    }
+
+    @Override
+    List<TableIterator> iterators() {
+        return _iterators;
+    }
+
+    /** Initial size of _chain. */
+    private static final int INITIAL_SIZE = 16;
+    /** Approximate number of bytes taken in _rows and _chain by each
+     *  saved row number. */
+    private static final int ROW_BYTES = 8;
+    /** Approximate number of bytes taken in _heads by each key, apart
+     *  from its characters. */
+    private static final int KEY_OVERHEAD = 96;
+
+    /** The input that is read into the hash table. */
+    private final Operator _build;
+    /** The key column of _build. */
+    private final Column _buildKey;
+    /** The input that is matched against the hash table. */
+    private final Operator _probe;
+    /** The key column of _probe. */
+    private final Column _probeKey;
+    /** The iterators of both inputs. */
+    private final ArrayList<TableIterator> _iterators;
+    /** The results of _build, or of the partition of them being joined,
+     *  or null before they have been read. */
+    private RowNumbers _rows;
+    /** Maps each key value to the last result in _rows having it. */
+    private HashMap<String, Integer> _heads;
+    /** _chain[k] is the previous result in _rows with the same key as
+     *  result k, or -1 if there is none. */
+    private int[] _chain;
+    /** Approximate number of bytes taken by _rows, _heads, and _chain. */
+    private long _used;
+    /** True iff the inputs have been partitioned into spill files. */
+    private boolean _spilled;
+    /** Pairs of partitions of the build and probe results not yet
+     *  joined. */
+    private final ArrayDeque<SpillFile[]> _pending;
+    /** The partition of the probe results being matched against _rows, or
+     *  null if they are those of _probe. */
+    private SpillFile _probeSource;
+    /** False iff no probe results are being matched against _rows. */
+    private boolean _probing;
+    /** The key of the current build or probe result. */
+    private String _key;
+    /** The next result in _rows matching the current probe result, or
+     *  -1 if there is none. */
+    private int _match;
+}
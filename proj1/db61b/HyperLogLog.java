@@ -0,0 +1,77 @@
+package db61b;
+
+/** Estimates the number of distinct values in a sequence in a small,
+ *  fixed amount of memory, by the HyperLogLog method.  Each value is
+ *  hashed to 64 bits; the first PRECISION bits choose one of 2**PRECISION
+ *  registers, which records the longest run of leading zeros seen in the
+ *  rest.  The estimate's standard error is about 1.04 / sqrt(2**PRECISION),
+ *  or 1.6%; for small numbers of values, it is nearly exact.
+ *  @author JuKyung Choi
+ */
+class HyperLogLog {
+
+    /** Number of bits of hash that choose a register. */
+    private static final int PRECISION = 12;
+    /** Number of registers. */
+    private static final int REGISTERS = 1 << PRECISION;
+    /** Bias correction constant for REGISTERS registers. */
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+    /** Raw estimates at most this multiple of REGISTERS are corrected by
+     *  counting empty registers instead. */
+    private static final double SMALL_RANGE = 2.5;
+
+    /** Parameters of the 64-bit FNV-1a hash. */
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L,
+        FNV_PRIME = 0x100000001b3L;
+    /** Multipliers of the final mixing of hashes. */
+    private static final long MIX1 = 0xff51afd7ed558ccdL,
+        MIX2 = 0xc4ceb9fe1a85ec53L;
+
+    /** An estimator that has seen no values. */
+    HyperLogLog() {
+        _registers = new byte[REGISTERS];
+    }
+
+    /** Record VALUE. */
+    void add(String value) {
+        long hash = hash(value);
+        int register = (int) (hash >>> (Long.SIZE - PRECISION));
+        long rest = (hash << PRECISION) | (1L << (PRECISION - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (rank > _registers[register]) {
+            _registers[register] = rank;
+        }
+    }
+
+    /** Return the estimated number of distinct values recorded. */
+    long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte rank : _registers) {
+            sum += 1.0 / (1L << rank);
+            if (rank == 0) {
+                zeros += 1;
+            }
+        }
+        double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+        if (estimate <= SMALL_RANGE * REGISTERS && zeros > 0) {
+            estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /** Return a 64-bit hash of VALUE. */
+    private static long hash(String value) {
+        long h = FNV_OFFSET;
+        for (int i = 0; i < value.length(); i++) {
+            h = (h ^ value.charAt(i)) * FNV_PRIME;
+        }
+        h = (h ^ (h >>> 33)) * MIX1;
+        h = (h ^ (h >>> 33)) * MIX2;
+        return h ^ (h >>> 33);
+    }
+
+    /** _registers[r] is the largest rank of a value hashed to register
+     *  r, or 0 if there is none. */
+    private final byte[] _registers;
+}
@@ -0,0 +1,108 @@
+package db61b;
+
+import java.util.Arrays;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/** A sorted secondary index on one column of a Table, mapping each value
+ *  in that column to the numbers of the rows that contain it.  It may be
+ *  searched by any number of threads while one adds to it.
+ *  @author JuKyung Choi
+ */
+class Index {
+
+    /** An empty Index on column #COLUMN, of type TYPE, of some Table.
+     *  Values are ordered as TYPE compares them. */
+    Index(int column, ColumnType type) {
+        _column = column;
+        _type = type;
+        if (type == ColumnType.STRING) {
+            _postings = new ConcurrentSkipListMap<>();
+        } else {
+            _postings = new ConcurrentSkipListMap<>(type::compare);
+        }
+    }
+
+    /** Return the number of the column I index. */
+    int column() {
+        return _column;
+    }
+
+    /** Record that row #K of my Table is ROW. */
+    void add(Row row, int k) {
+        String key = row.get(_column);
+        Postings rows = _postings.get(key);
+        if (rows == null) {
+            rows = new Postings();
+            _postings.put(key, rows);
+        }
+        rows.add(k);
+    }
+
+    /** Return the numbers, in increasing order, of the rows less than
+     *  LIMIT whose value in my column lies between LO and HI.  LO and HI
+     *  are included in the range iff LOINCLUSIVE and HIINCLUSIVE,
+     *  respectively.  A null LO or HI leaves that end of the range
+     *  unbounded.  LO and HI must be valid values of my column's type. */
+    int[] rows(String lo, boolean loInclusive,
+               String hi, boolean hiInclusive, int limit) {
+        NavigableMap<String, Postings> range = _postings;
+        if (lo != null && hi != null && _type.compare(lo, hi) > 0) {
+            return new int[0];
+        }
+        if (lo != null) {
+            range = range.tailMap(lo, loInclusive);
+        }
+        if (hi != null) {
+            range = range.headMap(hi, hiInclusive);
+        }
+        int[] result = new int[0];
+        int n, numKeys;
+        n = numKeys = 0;
+        for (Postings p : range.values()) {
+            int size = p._size;
+            int[] rows = p._rows;
+            int count = Arrays.binarySearch(rows, 0, size, limit);
+            count = count < 0 ? -count - 1 : count;
+            if (n + count > result.length) {
+                result = Arrays.copyOf(result,
+                                       Math.max(n + count, 2 * result.length));
+            }
+            System.arraycopy(rows, 0, result, n, count);
+            n += count;
+            numKeys += 1;
+        }
+        result = Arrays.copyOf(result, n);
+        if (numKeys > 1) {
+            Arrays.sort(result);
+        }
+        return result;
+    }
+
+    /** The row numbers holding one value, in increasing order.  Readers
+     *  read _size before _rows, so that _rows holds at least _size
+     *  numbers. */
+    private static class Postings {
+        /** Append K. */
+        void add(int k) {
+            int[] rows = _rows;
+            if (_size == rows.length) {
+                rows = _rows = Arrays.copyOf(rows, 2 * _size);
+            }
+            rows[_size] = k;
+            _size += 1;
+        }
+
+        /** Row numbers in _rows[0 .. _size-1]. */
+        private volatile int[] _rows = new int[1];
+        /** Number of rows. */
+        private volatile int _size;
+    }
+
+    /** Number of my column. */
+    private final int _column;
+    /** Type of my column. */
+    private final ColumnType _type;
+    /** Maps each value in my column to the rows containing it. */
+    private final ConcurrentSkipListMap<String, Postings> _postings;
+}
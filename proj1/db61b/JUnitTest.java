@@ -2,7 +2,17 @@ package db61b;
 
 import java.util.ArrayList;
 import static org.junit.Assert.*;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.junit.Test;
 
 public class JUnitTest {
@@ -58,6 +68,22 @@ public class JUnitTest {
 
     }
 
+    @Test
+    public void addTest() {
+        Table table = new Table("nums", new String[] { "N", "Square" });
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(true, table.add(new Row(new String[] {
+                "" + i, "" + (i * i) })));
+        }
+        for (int i = 999; i >= 0; i--) {
+            assertEquals(false, table.add(new Row(new String[] {
+                "" + i, "" + (i * i) })));
+        }
+        assertEquals(1000, table.size());
+        assertEquals(new Row(new String[] { "7", "49" }),
+                     table.getRows().get(7));
+    }
+
     @Test
     public void tableIteratorTest() throws IOException {
         Table enr = Table.readTable("enrolled");
@@ -94,6 +120,406 @@ public class JUnitTest {
         assertEquals(true, cond4.test());
     }
 
+    @Test
+    public void compileTest() {
+        Table table = new Table("t", new String[] { "A", "B" });
+        table.add(new Row(new String[] { "1", "2" }));
+        table.add(new Row(new String[] { "3", "3" }));
+        TableIterator it = table.tableIterator();
+        ArrayList<TableIterator> its = new ArrayList<TableIterator>();
+        its.add(it);
+        Column a = new Column(table, "A"), b = new Column(table, "B");
+        a.resolve(its);
+        b.resolve(its);
+        ArrayList<Condition> conds = new ArrayList<Condition>();
+        conds.add(new Condition(a, "<=", b));
+        conds.add(new Condition(new Literal("2"), ">", a));
+        conds.add(new Condition(b, "!=", "3"));
+        for (int r = 0; r < table.size(); r++) {
+            it.setRow(r);
+            for (Condition cond : conds) {
+                assertEquals(cond.test(), cond.compile().getAsBoolean());
+            }
+            assertEquals(Condition.test(conds),
+                         Condition.compile(conds).getAsBoolean());
+        }
+    }
+
+    @Test
+    public void typedColumnTest() {
+        Table table = new Table("t", new String[] { "N", "D" },
+            new ColumnType[] { ColumnType.INT, ColumnType.DECIMAL });
+        assertEquals(true, table.add(new Row(new String[] { "10", "2.50" })));
+        assertEquals(false, table.add(new Row(new String[] { "010", "2.5" })));
+        assertEquals(true, table.add(new Row(new String[] { "9", "-0" })));
+        assertEquals("0", table.get(1, 1));
+        assertEquals(10L, table.getLong(0, 0));
+        TableIterator it = table.tableIterator();
+        ArrayList<TableIterator> its = new ArrayList<TableIterator>();
+        its.add(it);
+        Column n = new Column(table, "N");
+        n.resolve(its);
+        Condition cond = new Condition(n, ">", "9");
+        assertEquals(true, cond.test());
+        assertEquals(true, cond.compile().getAsBoolean());
+        it.setRow(1);
+        assertEquals(false, cond.compile().getAsBoolean());
+    }
+
+    @Test
+    public void writeAheadLogTest() throws IOException {
+        File file = File.createTempFile("db61b", ".wal");
+        file.deleteOnExit();
+        WriteAheadLog log = new WriteAheadLog(file.getPath(), true);
+        Table table = new Table("t", new String[] { "A", "B" });
+        table.add(new Row(new String[] { "1", "x" }));
+        log.created(table);
+        log.inserted("t", new Row(new String[] { "2", "" }));
+        log.commit();
+        log.close();
+        try (FileWriter torn = new FileWriter(file, true)) {
+            torn.write("0 insert t 3");
+        }
+
+        HashMap<String, Table> db = new HashMap<>();
+        log = new WriteAheadLog(file.getPath(), true);
+        log.recover(db);
+        log.close();
+        Table recovered = db.get("t");
+        assertEquals(2, recovered.size());
+        assertEquals("x", recovered.get(0, 1));
+        assertEquals("", recovered.get(1, 1));
+    }
+
+    @Test
+    public void walEmptyInsertTest() throws IOException {
+        File dir = Files.createTempDirectory("db61b").toFile();
+        String name = new File(dir, "t").getPath();
+        File file = new File(name + ".db"), logFile = new File(dir, "wal");
+        dir.deleteOnExit();
+        file.deleteOnExit();
+        logFile.deleteOnExit();
+        Table table = new Table(name, new String[] { "A" });
+        table.writeTable(name);
+        WriteAheadLog log = new WriteAheadLog(logFile.getPath(), true);
+        log.created(table);
+        log.stored(name, log.position());
+        log.inserted(name, new Row(new String[] { "" }));
+        log.commit();
+        log.loaded("other");
+        log.close();
+
+        HashMap<String, Table> db = new HashMap<>();
+        log = new WriteAheadLog(logFile.getPath(), true);
+        log.recover(db);
+        log.close();
+        assertEquals(1, db.get(name).size());
+        assertEquals("", db.get(name).get(0, 0));
+    }
+
+    @Test
+    public void storeDuringInsertTest() throws IOException {
+        File dir = Files.createTempDirectory("db61b").toFile();
+        String name = new File(dir, "t").getPath();
+        File file = new File(name + ".db"), logFile = new File(dir, "wal");
+        dir.deleteOnExit();
+        file.deleteOnExit();
+        logFile.deleteOnExit();
+        WriteAheadLog log = new WriteAheadLog(logFile.getPath(), true);
+        boolean[] armed = { false };
+        /* A table into which a row is inserted, and logged, just after
+         * its size is first read once armed: the store below then races
+         * with that insert. */
+        Table table = new Table(name, new String[] { "A" }) {
+            @Override
+            int size() {
+                int size = super.size();
+                if (armed[0]) {
+                    armed[0] = false;
+                    Row row = new Row(new String[] { "2" });
+                    add(row);
+                    log.inserted(name, row);
+                }
+                return size;
+            }
+        };
+        table.add(new Row(new String[] { "1" }));
+        log.created(table);
+        StoreQueue stores = new StoreQueue(log);
+        armed[0] = true;
+        stores.store(table, false);
+        stores.sync();
+        log.close();
+
+        HashMap<String, Table> db = new HashMap<>();
+        WriteAheadLog reopened = new WriteAheadLog(logFile.getPath(), true);
+        reopened.recover(db);
+        reopened.close();
+        assertEquals(2, db.get(name).size());
+    }
+
+    @Test
+    public void storeFailureTest() throws IOException {
+        File dir = Files.createTempDirectory("db61b").toFile();
+        String good = new File(dir, "good").getPath(),
+            bad = new File(new File(dir, "missing"), "bad").getPath();
+        dir.deleteOnExit();
+        new File(good + ".db").deleteOnExit();
+        StoreQueue stores = new StoreQueue(null);
+        stores.store(new Table(bad, new String[] { "A" }), false);
+        stores.store(new Table(good, new String[] { "A" }), false);
+        stores.await(good);
+        try {
+            stores.await(bad);
+            fail("failed store not reported");
+        } catch (DBException e) {
+            /* Expected. */
+        }
+        stores.sync();
+    }
+
+    @Test
+    public void appendStoreTest() throws IOException {
+        File dir = Files.createTempDirectory("db61b").toFile();
+        String name = new File(dir, "t").getPath();
+        File file = new File(name + ".db");
+        dir.deleteOnExit();
+        file.deleteOnExit();
+        Table table = new Table("t", new String[] { "A", "B" });
+        table.add(new Row(new String[] { "1", "x" }));
+        table.writeTable(name);
+        long length = file.length();
+        table.add(new Row(new String[] { "2", "y" }));
+        table.writeTable(name);
+        assertEquals(length + "2,y".length() + 1, file.length());
+        assertEquals(2, Table.readTable(name).size());
+
+        try (FileWriter other = new FileWriter(file)) {
+            other.write("A,B\n9,z\n");
+        }
+        table.add(new Row(new String[] { "3", "w" }));
+        table.writeTable(name);
+        Table reread = Table.readTable(name);
+        assertEquals(3, reread.size());
+        assertEquals("x", reread.get(0, 1));
+    }
+
+    @Test
+    public void concurrentSessionsTest() throws InterruptedException {
+        Map<String, Table> db = new ConcurrentHashMap<>();
+        db.put("t", new Table("t", new String[] { "A" }));
+        StoreQueue stores = new StoreQueue(null);
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            script.append("insert into t values '").append(i).append("';\n");
+            script.append("select A from t where A = '0';\n");
+        }
+        ArrayList<Thread> sessions = new ArrayList<>();
+        for (int k = 0; k < 4; k++) {
+            PrintStream out = new PrintStream(new ByteArrayOutputStream());
+            CommandInterpreter session =
+                new CommandInterpreter(db, new StringReader(script.toString()),
+                                       out, null, stores);
+            sessions.add(new Thread(() -> Main.run(session, out)));
+        }
+        for (Thread session : sessions) {
+            session.start();
+        }
+        for (Thread session : sessions) {
+            session.join();
+        }
+        assertEquals(2000, db.get("t").size());
+    }
+
+    @Test
+    public void snapshotTest() {
+        Table table = new Table("t", new String[] { "A" });
+        table.add(new Row(new String[] { "1" }));
+        table.add(new Row(new String[] { "2" }));
+        table.createIndex("A");
+        TableIterator it = table.tableIterator();
+        long snapshot = Table.snapshot();
+        table.add(new Row(new String[] { "3" }));
+        assertEquals(3, table.size());
+        assertEquals(2, table.size(snapshot));
+        assertEquals(2, it.size());
+        ArrayList<TableIterator> its = new ArrayList<TableIterator>();
+        its.add(it);
+        Column a = new Column(table, "A");
+        a.resolve(its);
+        assertEquals(2, new Condition(a, ">", "0").indexLookup(it).length);
+        it.open(Table.snapshot());
+        assertEquals(3, it.size());
+    }
+
+    @Test
+    public void lazyLoadTest() throws IOException {
+        File dir = Files.createTempDirectory("db61b").toFile();
+        String name = new File(dir, "t").getPath();
+        File file = new File(name + ".db");
+        dir.deleteOnExit();
+        file.deleteOnExit();
+        try (FileWriter out = new FileWriter(file)) {
+            out.write("A,B\n1,x\n2\n");
+        }
+        Table lazy = Table.lazy(name, false);
+        assertEquals(2, lazy.numColumns());
+        assertEquals(0, lazy.size());
+        try {
+            lazy.contents();
+            fail("malformed row read");
+        } catch (DBException e) {
+            /* Expected: the rows are only read now. */
+        }
+        try (FileWriter out = new FileWriter(file)) {
+            out.write("A,B\n1,x\n2,y\n");
+        }
+        Table contents = lazy.contents();
+        assertEquals(2, contents.size());
+        assertTrue(contents == lazy.contents());
+        assertTrue(contents == contents.contents());
+    }
+
+    @Test
+    public void pagedStorageTest() {
+        BufferPool pool = new BufferPool(1);
+        PagedStorage storage = new PagedStorage(Table.strings(2), pool);
+        int n = 3 * PagedStorage.PAGE_ROWS + 5;
+        for (int k = 0; k < n; k++) {
+            storage.add(new Row(new String[] { "" + k, "v" + (k % 7) }));
+        }
+        assertEquals(0, pool.used());
+        Page page = storage.pin(PagedStorage.PAGE_ROWS);
+        assertTrue(pool.used() > 0);
+        assertEquals("v" + (PagedStorage.PAGE_ROWS % 7),
+                     storage.get(PagedStorage.PAGE_ROWS, 1));
+        for (int k = n - 1; k >= 0; k--) {
+            assertEquals("" + k, storage.get(k, 0));
+        }
+        assertEquals(page.footprint(), pool.used());
+        storage.unpin(page);
+        assertEquals(0, pool.used());
+        assertEquals("0", storage.get(0, 0));
+    }
+
+    @Test
+    public void spillingDistinctTest() {
+        Table table = new Table("t", new String[] { "A", "B" });
+        for (int k = 0; k < 1000; k++) {
+            table.add(new Row(new String[] { "" + k, "" + (k % 37) }));
+        }
+        TableIterator it = table.tableIterator();
+        ArrayList<TableIterator> its = new ArrayList<TableIterator>();
+        its.add(it);
+        Column b = new Column(table, "B");
+        b.resolve(its);
+        ArrayList<Column> columns = new ArrayList<Column>();
+        columns.add(b);
+        Distinct distinct = new Distinct(new Project(new Scan(it), columns), 0);
+        HashSet<Row> rows = new HashSet<Row>();
+        while (distinct.next()) {
+            assertTrue(rows.add(distinct.row()));
+        }
+        assertEquals(37, rows.size());
+    }
+
+    @Test
+    public void statisticsTest() throws IOException {
+        Table table = new Table("t", new String[] { "N", "S" },
+            new ColumnType[] { ColumnType.INT, ColumnType.STRING });
+        for (int k = 0; k < 1000; k++) {
+            String s = k % 4 == 0 ? "" : "s" + (k % 10);
+            table.add(new Row(new String[] { "" + k, s }));
+        }
+        Statistics stats = Statistics.analyze(table);
+        assertEquals(1000, stats.distinct(0), 20);
+        assertEquals(10, stats.distinct(1));
+        assertEquals(0.001, stats.equalFraction(0, "7"), 1e-4);
+        assertEquals(0, stats.equalFraction(0, "1000"), 1e-9);
+        assertEquals(0.25, stats.equalFraction(1, ""), 1e-9);
+        assertEquals(0.5, stats.lessFraction(0, "500", false), 0.02);
+
+        TableIterator it = table.tableIterator();
+        ArrayList<TableIterator> its = new ArrayList<TableIterator>();
+        its.add(it);
+        Column n = new Column(table, "N");
+        n.resolve(its);
+        Condition cond = new Condition(new Literal("100"), ">", n);
+        assertEquals(1.0 / 3, cond.selectivity(), 1e-9);
+        table.setStatistics(stats);
+        assertEquals(0.1, cond.selectivity(), 0.02);
+
+        File dir = Files.createTempDirectory("db61b").toFile();
+        String name = new File(dir, "t").getPath();
+        dir.deleteOnExit();
+        Statistics.file(name).deleteOnExit();
+        stats.write(name);
+        Statistics read = Statistics.read(name, table);
+        assertEquals(1000, read.rows());
+        assertEquals(stats.lessFraction(0, "500", true),
+                     read.lessFraction(0, "500", true), 1e-9);
+        assertEquals(null, Statistics.read(name, new Table("t",
+            new String[] { "N", "T" })));
+    }
+
+    @Test
+    public void parallelLoadTest() throws IOException {
+        File dir = Files.createTempDirectory("db61b").toFile();
+        String name = new File(dir, "t").getPath();
+        File file = new File(name + ".db");
+        dir.deleteOnExit();
+        file.deleteOnExit();
+        for (String eol : new String[] { "\n", "\r\n", "\r" }) {
+            try (FileWriter out = new FileWriter(file)) {
+                out.write("A,B" + eol);
+                for (int k = 0; k < 100; k++) {
+                    out.write(k + ",v" + (k % 7) + eol);
+                }
+            }
+            Table expected = Table.readTable(name);
+            assertEquals(100, expected.size());
+            for (int chunkSize = 1; chunkSize < 20; chunkSize += 3) {
+                Table table = TableLoader.load("t", file, chunkSize);
+                assertEquals(expected.numColumns(), table.numColumns());
+                assertEquals(expected.getRows(), table.getRows());
+            }
+        }
+    }
+
+    @Test
+    public void parallelFilterTest() {
+        Table table = new Table("t", new String[] { "A", "B" },
+            new ColumnType[] { ColumnType.INT, ColumnType.STRING });
+        for (int k = 0; k < 10000; k++) {
+            table.add(new Row(new String[] { "" + k, "v" + (k % 7) }));
+        }
+        ArrayList<ArrayList<Integer>> results = new ArrayList<>();
+        for (int parallel = 0; parallel < 2; parallel++) {
+            TableIterator it = table.tableIterator();
+            ArrayList<TableIterator> its = new ArrayList<TableIterator>();
+            its.add(it);
+            Column a = new Column(table, "A"), b = new Column(table, "B");
+            a.resolve(its);
+            b.resolve(its);
+            ArrayList<Condition> conds = new ArrayList<Condition>();
+            conds.add(new Condition(a, ">=", "1234"));
+            conds.add(new Condition(b, "=", "v3"));
+            Operator op;
+            if (parallel == 1) {
+                op = new ParallelFilter(it, conds);
+            } else {
+                op = new Filter(new Scan(it), conds);
+            }
+            ArrayList<Integer> rows = new ArrayList<>();
+            while (op.next()) {
+                rows.add(it.rowNumber());
+            }
+            results.add(rows);
+        }
+        assertEquals((10000 - 1234) / 7 + 1, results.get(0).size());
+        assertEquals(results.get(0), results.get(1));
+    }
+
     public static void main(String[] args) {
         System.exit(ucb.junit.textui.runClasses(JUnitTest.class));
     }
@@ -19,6 +19,16 @@ class Literal extends Column {
         return _value;
     }
 
+    @Override
+    Column moveTo(TableIterator it) {
+        return this;
+    }
+
+    @Override
+    ColumnType type() {
+        return null;
+    }
+
     @Override
     void resolve(List<TableIterator> iterators) {
     }
@@ -1,7 +1,13 @@
 package db61b;
 
-import java.util.Scanner;
-import java.util.HashMap;
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /** The main program for db61b.
  *  @author JuKyung Choi
@@ -9,31 +15,75 @@ import java.util.HashMap;
 public class Main {
 
     /** Version designation for this program. */
-    private static final String VERSION = "3.0";
+    static final String VERSION = "3.0";
 
     /** Starting with an empty database, read and execute commands from
      *  System.in until receiving a 'quit' ('exit') command or until
-     *  reaching the end of input. */
+     *  reaching the end of input.  If the system property db61b.wal names
+     *  a log file, the database starts with the tables recovered from it,
+     *  and changes to tables are recorded in it (see WriteAheadLog).  If
+     *  the system property db61b.port is set, commands are instead read
+     *  from connections to that port (see Server).  Commands and output,
+     *  like all of db61b's files, are encoded in UTF-8. */
     public static void main(String[] unused) {
+        System.setOut(new PrintStream(new BufferedOutputStream(
+                                          new FileOutputStream(
+                                              FileDescriptor.out)),
+                                      true, StandardCharsets.UTF_8));
         System.out.printf("DB61B System.  Version %s.%n", VERSION);
 
-        HashMap<String, Table> db = new HashMap<>();
+        Map<String, Table> db = new ConcurrentHashMap<>();
 
-        Scanner input = new Scanner(System.in);
-        CommandInterpreter interpreter =
-            new CommandInterpreter(db, input, System.out);
+        WriteAheadLog log = null;
+        if (WriteAheadLog.FILE_NAME != null) {
+            try {
+                log = new WriteAheadLog(WriteAheadLog.FILE_NAME,
+                                        WriteAheadLog.SYNCHRONOUS);
+                log.recover(db);
+            } catch (DBException e) {
+                System.out.printf("Error: %s%n", e.getMessage());
+                System.exit(1);
+            }
+        }
+        StoreQueue stores = new StoreQueue(log);
 
+        if (Server.PORT != null) {
+            try {
+                Server.serve(Server.PORT, db, log, stores);
+            } catch (DBException e) {
+                System.out.printf("Error: %s%n", e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        InputStreamReader input =
+            new InputStreamReader(System.in, StandardCharsets.UTF_8);
+        run(new CommandInterpreter(db, input, System.out, log, stores),
+            System.out);
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    /** Execute statements with INTERPRETER until it reads a 'quit'
+     *  ('exit') command or reaches the end of its input, reporting errors
+     *  on OUTPUT, and then wait for its stores to finish. */
+    static void run(CommandInterpreter interpreter, PrintStream output) {
         while (true) {
             try {
                 if (!interpreter.statement()) {
                     break;
                 }
             } catch (DBException e) {
-                System.out.printf("Error: %s%n", e.getMessage());
+                output.printf("Error: %s%n", e.getMessage());
                 interpreter.skipCommand();
             }
         }
+        try {
+            interpreter.sync();
+        } catch (DBException e) {
+            output.printf("Error: %s%n", e.getMessage());
+        }
     }
 
 }
-
@@ -0,0 +1,102 @@
+package db61b;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/** Storage for the rows of a binary (.dbb) table file, read in place from
+ *  the memory-mapped file.  Each column is a dictionary of its distinct
+ *  values plus one fixed-width code per row; values are decoded only when
+ *  first asked for, and then cached.  Rows added after loading are kept
+ *  on the heap in a RowStorage.  Concurrent readers may both decode the
+ *  same value, but since the cached Strings are immutable, either copy
+ *  serves.
+ *  @author JuKyung Choi
+ */
+class MappedStorage extends Storage {
+
+    /** A Storage of NUMROWS rows of the values described by DICTIONARIES
+     *  and CODES, which each have one buffer per column.  DICTIONARIES[c]
+     *  holds the number n of distinct values in column c, n+1 byte offsets
+     *  to the starts of their UTF-8 encodings (the last marks the end of
+     *  the final value), and the encodings themselves.  CODES[c] holds
+     *  NUMROWS codes of WIDTHS[c] bytes each.  TYPES gives the types of
+     *  the columns. */
+    MappedStorage(ColumnType[] types, int numRows, ByteBuffer[] dictionaries,
+                  ByteBuffer[] codes, int[] widths) {
+        super(types);
+        _numRows = numRows;
+        _dictionaries = dictionaries;
+        _codes = codes;
+        _widths = widths;
+        _values = new String[codes.length][];
+        _added = new RowStorage(types);
+    }
+
+    @Override
+    int size() {
+        return _numRows + _added.size();
+    }
+
+    @Override
+    String get(int row, int col) {
+        if (row >= _numRows) {
+            return _added.get(row - _numRows, col);
+        }
+        return value(col, code(row, col));
+    }
+
+    @Override
+    void add(Row row) {
+        _added.add(row);
+    }
+
+    /** Return the code of column #COL in row #ROW < _numRows. */
+    int code(int row, int col) {
+        ByteBuffer codes = _codes[col];
+        switch (_widths[col]) {
+        case 1:
+            return codes.get(row) & BYTE_MASK;
+        case 2:
+            return codes.getShort(2 * row) & SHORT_MASK;
+        default:
+            return codes.getInt(4 * row);
+        }
+    }
+
+    /** Return the value whose code in column #COL is CODE. */
+    private String value(int col, int code) {
+        String[] values = _values[col];
+        if (values == null) {
+            values = _values[col] = new String[_dictionaries[col].getInt(0)];
+        }
+        String value = values[code];
+        if (value == null) {
+            ByteBuffer dict = _dictionaries[col];
+            int base = 4 * (values.length + 2);
+            int start = dict.getInt(4 * (code + 1)),
+                end = dict.getInt(4 * (code + 2));
+            byte[] bytes = new byte[end - start];
+            dict.slice(base + start, bytes.length).get(bytes);
+            value = values[code] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    /** Masks for reading unsigned 1- and 2-byte codes. */
+    private static final int BYTE_MASK = 0xff, SHORT_MASK = 0xffff;
+
+    /** Number of rows in the file. */
+    private final int _numRows;
+    /** Per-column dictionaries, laid out as described for the
+     *  constructor. */
+    private final ByteBuffer[] _dictionaries;
+    /** Per-column codes. */
+    private final ByteBuffer[] _codes;
+    /** Width in bytes of the codes of each column. */
+    private final int[] _widths;
+    /** _values[c][k], once decoded, is the value with code k in column c.
+     *  _values[c] is null until column c is first read. */
+    private final String[][] _values;
+    /** Rows added since loading. */
+    private final RowStorage _added;
+}
@@ -0,0 +1,130 @@
+package db61b;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** An Operator that produces the combinations of results of two inputs
+ *  that satisfy an ordering comparison (<, <=, >, or >=) between a column
+ *  of each.  On the first call of next(), the results of both inputs are
+ *  buffered and sorted on their key columns.  For each result of the left
+ *  input in order, the matching results of the right input are then a
+ *  prefix or suffix of the sorted right input whose boundary only moves
+ *  forward, so the join costs O(n log n) plus the size of its output.
+ *  @author JuKyung Choi
+ */
+class MergeJoin extends Operator {
+
+    /** The combinations of a result of LEFT and a result of RIGHT that
+     *  satisfy JOIN, an ordering comparison between a column resolved to
+     *  an iterator of LEFT and one resolved to an iterator of RIGHT. */
+    MergeJoin(Operator left, Operator right, Condition join) {
+        _left = left;
+        _right = right;
+        _leftKey = join.columnFrom(left.iterators());
+        _rightKey = join.columnFrom(right.iterators());
+        _type = ColumnType.common(_leftKey.type(), _rightKey.type());
+        _less = join.admitsLess(_leftKey.source());
+        _inclusive = _less != join.admitsEqual();
+        _iterators = new ArrayList<>(left.iterators());
+        _iterators.addAll(right.iterators());
+        reset();
+    }
+
+    @Override
+    boolean next() {
+        if (_leftRows == null) {
+            _leftRows = new RowNumbers(_left.iterators());
+            _leftKeys = buffer(_left, _leftKey, _leftRows);
+            _leftOrder = sortedOrder(_leftKeys, _type);
+            _rightRows = new RowNumbers(_right.iterators());
+            _rightKeys = buffer(_right, _rightKey, _rightRows);
+            _rightOrder = sortedOrder(_rightKeys, _type);
+        }
+        while (_i >= _last) {
+            _o += 1;
+            if (_o >= _leftOrder.length) {
+                return false;
+            }
+            String key = _leftKeys[_leftOrder[_o]];
+            while (_bound < _rightOrder.length) {
+                int c = _type.compare(_rightKeys[_rightOrder[_bound]], key);
+                if (c > 0 || c == 0 && !_inclusive) {
+                    break;
+                }
+                _bound += 1;
+            }
+            _i = _less ? _bound : 0;
+            _last = _less ? _rightOrder.length : _bound;
+        }
+        _leftRows.restore(_leftOrder[_o]);
+        _rightRows.restore(_rightOrder[_i]);
+        _i += 1;
+        return true;
+    }
+
+    @Override
+    void reset() {
+        _o = -1;
+        _i = _last = _bound = 0;
+    }
+
+    @Override
+    List<TableIterator> iterators() {
+        return _iterators;
+    }
+
+    /** Save all results of INPUT in ROWS, returning the values of KEY for
+     *  each, in the same order. */
+    private static String[] buffer(Operator input, Column key,
+                                   RowNumbers rows) {
+        ArrayList<String> keys = new ArrayList<>();
+        input.reset();
+        while (input.next()) {
+            rows.add();
+            keys.add(key.value());
+        }
+        return keys.toArray(new String[keys.size()]);
+    }
+
+    /** Return the indices 0 .. KEYS.length - 1, ordered by their
+     *  values in KEYS as compared in TYPE. */
+    private static Integer[] sortedOrder(String[] keys, ColumnType type) {
+        Integer[] order = new Integer[keys.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> type.compare(keys[a], keys[b]));
+        return order;
+    }
+
+    /** The two inputs. */
+    private final Operator _left, _right;
+    /** The key columns of the two inputs. */
+    private final Column _leftKey, _rightKey;
+    /** The type in which keys are compared. */
+    private final ColumnType _type;
+    /** True iff the join holds when the left key is less than the right
+     *  key (so that matches are a suffix of the right input). */
+    private final boolean _less;
+    /** True iff the boundary between matching and non-matching right
+     *  results falls after right keys equal to the left key. */
+    private final boolean _inclusive;
+    /** The iterators of both inputs. */
+    private final ArrayList<TableIterator> _iterators;
+    /** The buffered results of the inputs, or null before next() is first
+     *  called. */
+    private RowNumbers _leftRows, _rightRows;
+    /** The key values of the buffered results. */
+    private String[] _leftKeys, _rightKeys;
+    /** Indices of the buffered results, sorted by key. */
+    private Integer[] _leftOrder, _rightOrder;
+    /** Position in _leftOrder of the current left result. */
+    private int _o;
+    /** Position in _rightOrder of the next right result to pair with the
+     *  current left result, and the end of the range of such results. */
+    private int _i, _last;
+    /** Number of right results (in sorted order) whose keys lie on the
+     *  same side of the boundary as all keys visited so far. */
+    private int _bound;
+}
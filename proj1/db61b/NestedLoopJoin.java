@@ -0,0 +1,66 @@
+package db61b;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** An Operator that produces every combination of a result of one input
+ *  with a result of another.  The second input is run only once; its
+ *  results are buffered as row numbers and replayed for each result of
+ *  the first.
+ *  @author JuKyung Choi
+ */
+class NestedLoopJoin extends Operator {
+
+    /** The cross product of the results of OUTER and INNER, which must
+     *  control disjoint iterators. */
+    NestedLoopJoin(Operator outer, Operator inner) {
+        _outer = outer;
+        _inner = inner;
+        _iterators = new ArrayList<>(outer.iterators());
+        _iterators.addAll(inner.iterators());
+        reset();
+    }
+
+    @Override
+    boolean next() {
+        if (_buffer == null) {
+            _buffer = new RowNumbers(_inner.iterators());
+            while (_inner.next()) {
+                _buffer.add();
+            }
+        }
+        while (_k >= _buffer.size()) {
+            if (!_outer.next()) {
+                return false;
+            }
+            _k = 0;
+        }
+        _buffer.restore(_k);
+        _k += 1;
+        return true;
+    }
+
+    @Override
+    void reset() {
+        _outer.reset();
+        _k = Integer.MAX_VALUE;
+    }
+
+    @Override
+    List<TableIterator> iterators() {
+        return _iterators;
+    }
+
+    /** The input whose results are visited once. */
+    private final Operator _outer;
+    /** The input whose results are buffered and replayed. */
+    private final Operator _inner;
+    /** The iterators of both inputs. */
+    private final ArrayList<TableIterator> _iterators;
+    /** The buffered results of _inner, or null before the first call of
+     *  next(). */
+    private RowNumbers _buffer;
+    /** Index in _buffer of the next result of _inner to pair with the
+     *  current result of _outer. */
+    private int _k;
+}
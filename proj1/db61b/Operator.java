@@ -0,0 +1,26 @@
+package db61b;
+
+import java.util.List;
+
+/** One stage of a pull-based query pipeline.  An Operator produces its
+ *  results one at a time, on demand: each call to next() moves the
+ *  TableIterators it controls to the rows that make up its next result,
+ *  so that Columns resolved to those iterators yield that result's
+ *  values.  Nothing is computed before it is asked for, except where an
+ *  operator (such as a join) must see all of one input first.
+ *  @author JuKyung Choi
+ */
+abstract class Operator {
+
+    /** Move to my next result, returning false (and leaving my iterators
+     *  in an unspecified state) if there are no more. */
+    abstract boolean next();
+
+    /** Start over, so that the next call to next() produces my first
+     *  result. */
+    abstract void reset();
+
+    /** Return the TableIterators whose current rows make up my current
+     *  result. */
+    abstract List<TableIterator> iterators();
+}
@@ -0,0 +1,68 @@
+package db61b;
+
+/** A block of consecutive rows of a PagedStorage, held in memory.  A page
+ *  is filled while it is the last page of its Storage, and never changes
+ *  after that, so that readers may go on using it after it has been
+ *  dropped from the BufferPool.
+ *  @author JuKyung Choi
+ */
+class Page {
+
+    /** Page #NUMBER of a Storage, holding ROWS, the rows numbered
+     *  NUMBER * ROWS.length onward, and taking about FOOTPRINT bytes of
+     *  memory. */
+    Page(int number, Row[] rows, long footprint) {
+        _number = number;
+        _rows = rows;
+        _first = number * rows.length;
+        _footprint = footprint;
+    }
+
+    /** Return my page number. */
+    int number() {
+        return _number;
+    }
+
+    /** Return true iff row #K of my Storage belongs on me. */
+    boolean holds(int k) {
+        return k >= _first && k - _first < _rows.length;
+    }
+
+    /** Return row #K of my Storage, which must belong on me. */
+    Row row(int k) {
+        return _rows[k - _first];
+    }
+
+    /** Make ROW row #K of my Storage, which must belong on me. */
+    void set(int k, Row row) {
+        _rows[k - _first] = row;
+    }
+
+    /** Return the number of rows I hold when full. */
+    int capacity() {
+        return _rows.length;
+    }
+
+    /** Return the approximate number of bytes of memory I take. */
+    long footprint() {
+        return _footprint;
+    }
+
+    /** Set footprint() to FOOTPRINT. */
+    void setFootprint(long footprint) {
+        _footprint = footprint;
+    }
+
+    /** Number of users that need me kept in memory (see BufferPool.pin).
+     *  Guarded by the BufferPool. */
+    int _pins;
+
+    /** My page number. */
+    private final int _number;
+    /** My rows. */
+    private final Row[] _rows;
+    /** Number of my first row in my Storage. */
+    private final int _first;
+    /** Approximate number of bytes of memory I take. */
+    private volatile long _footprint;
+}
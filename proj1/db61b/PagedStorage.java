@@ -0,0 +1,250 @@
+package db61b;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static db61b.Utils.*;
+
+/** Storage that keeps its rows in a temporary file, in Pages of PAGE_ROWS
+ *  rows, of which only those in a BufferPool (plus the last, which is
+ *  being filled) are in memory.  Tables kept this way may therefore be far
+ *  larger than the heap.  A page is written to the file once it is full,
+ *  and never changes after that.  Values of typed columns are kept in
+ *  their canonical text, and parsed when asked for.  The file is deleted
+ *  once the Storage is no longer in use.
+ *  @author JuKyung Choi
+ */
+class PagedStorage extends Storage {
+
+    /** Number of rows in a page. */
+    static final int PAGE_ROWS = 1 << 10;
+
+    /** An empty PagedStorage for rows whose values have types TYPES, whose
+     *  pages are cached in POOL. */
+    PagedStorage(ColumnType[] types, BufferPool pool) {
+        super(types);
+        _pool = pool;
+        _id = IDS.incrementAndGet();
+        _file = new PageFile(_id, pool);
+        CLEANER.register(this, _file);
+        _offsets = new long[INITIAL_PAGES + 1];
+        _tail = new Page(0, new Row[PAGE_ROWS], 0);
+        _recent = _tail;
+    }
+
+    @Override
+    int size() {
+        return _size;
+    }
+
+    @Override
+    String get(int row, int col) {
+        return row(row).get(col);
+    }
+
+    @Override
+    Row row(int k) {
+        Page page = _recent;
+        if (!page.holds(k)) {
+            page = pin(k);
+            unpin(page);
+            _recent = page;
+        }
+        return page.row(k);
+    }
+
+    @Override
+    boolean rowEquals(int k, Row row) {
+        return row.equals(row(k));
+    }
+
+    @Override
+    void add(Row row) {
+        Page tail = _tail;
+        tail.set(_size, row);
+        _size += 1;
+        if (_size % PAGE_ROWS == 0) {
+            write(tail);
+            _pool.add(_id, tail);
+            _tail = new Page(tail.number() + 1, new Row[PAGE_ROWS], 0);
+        }
+    }
+
+    @Override
+    Page pin(int k) {
+        int number = k / PAGE_ROWS;
+        Page tail = _tail;
+        if (tail.number() == number) {
+            return _pool.pin(tail);
+        }
+        return _pool.pin(this, number);
+    }
+
+    @Override
+    void unpin(Page page) {
+        _pool.unpin(page);
+    }
+
+    /** Return my identifying number, which no other PagedStorage has. */
+    int id() {
+        return _id;
+    }
+
+    /** Return my page #NUMBER, which must be full, read from my file. */
+    Page readPage(int number) {
+        long[] offsets = _offsets;
+        long start = offsets[number];
+        ByteBuffer bytes =
+            ByteBuffer.allocate((int) (offsets[number + 1] - start));
+        try {
+            FileChannel channel = _file.channel();
+            while (bytes.hasRemaining()) {
+                if (channel.read(bytes, start + bytes.position()) < 0) {
+                    throw error("page file is truncated");
+                }
+            }
+        } catch (IOException e) {
+            throw error("problem reading from page file");
+        }
+        bytes.flip();
+        Row[] rows = new Row[PAGE_ROWS];
+        for (int r = 0; r < PAGE_ROWS; r++) {
+            String[] data = new String[numColumns()];
+            for (int c = 0; c < data.length; c++) {
+                int length = bytes.getInt();
+                data[c] = new String(bytes.array(), bytes.position(), length,
+                                     StandardCharsets.UTF_8);
+                bytes.position(bytes.position() + length);
+            }
+            rows[r] = new Row(data);
+        }
+        return new Page(number, rows, footprint(bytes.limit()));
+    }
+
+    /** Append PAGE, my last page, which has just been filled, to my file,
+     *  and set its footprint. */
+    private void write(Page page) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int number = page.number();
+        try {
+            for (int k = number * PAGE_ROWS; k < _size; k++) {
+                Row row = page.row(k);
+                for (int c = 0; c < row.size(); c++) {
+                    byte[] value = row.get(c).getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(value.length);
+                    out.write(value);
+                }
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            long start = _offsets[number];
+            FileChannel channel = _file.channel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, start + buffer.position());
+            }
+        } catch (IOException e) {
+            throw error("trouble writing to page file");
+        }
+        long[] offsets = _offsets;
+        if (number + 2 > offsets.length) {
+            offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+        }
+        offsets[number + 1] = offsets[number] + bytes.size();
+        _offsets = offsets;
+        page.setFootprint(footprint(bytes.size()));
+    }
+
+    /** Return the approximate number of bytes of memory taken by a full
+     *  page whose values take LENGTH bytes in my file. */
+    private long footprint(long length) {
+        return length
+            + PAGE_ROWS * (ROW_OVERHEAD + numColumns() * VALUE_OVERHEAD);
+    }
+
+    /** The temporary file holding the full pages of a PagedStorage.  When
+     *  run, it closes and deletes the file, and drops the pages from the
+     *  pool; this is done once the PagedStorage becomes unreachable. */
+    private static class PageFile implements Runnable {
+
+        /** The file of the PagedStorage numbered ID, whose pages are cached
+         *  in POOL.  It is not created until first needed. */
+        PageFile(int id, BufferPool pool) {
+            _id = id;
+            _pool = pool;
+        }
+
+        /** Return a channel open for reading and writing to my file,
+         *  creating the file if need be. */
+        synchronized FileChannel channel() throws IOException {
+            if (_channel == null) {
+                Path path = Files.createTempFile("db61b", ".pages");
+                _channel = FileChannel.open(path, StandardOpenOption.READ,
+                                            StandardOpenOption.WRITE,
+                                            StandardOpenOption.DELETE_ON_CLOSE);
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    /* Ignore: deleted on close instead. */
+                }
+            }
+            return _channel;
+        }
+
+        @Override
+        public synchronized void run() {
+            _pool.discard(_id);
+            if (_channel != null) {
+                try {
+                    _channel.close();
+                } catch (IOException e) {
+                    /* Ignore: nothing more can be done. */
+                }
+            }
+        }
+
+        /** Number of my PagedStorage. */
+        private final int _id;
+        /** Pool caching my pages. */
+        private final BufferPool _pool;
+        /** Open channel to my file, or null if not yet created. */
+        private FileChannel _channel;
+    }
+
+    /** Initial length of _offsets, less one. */
+    private static final int INITIAL_PAGES = 16;
+    /** Approximate bytes of memory taken, apart from their text, by each
+     *  row of a page and by each of its values. */
+    private static final int ROW_OVERHEAD = 32, VALUE_OVERHEAD = 40;
+    /** Source of the numbers of PagedStorages. */
+    private static final AtomicInteger IDS = new AtomicInteger();
+    /** Deletes the files of PagedStorages no longer in use. */
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    /** Pool caching my full pages. */
+    private final BufferPool _pool;
+    /** My identifying number. */
+    private final int _id;
+    /** The file holding my full pages. */
+    private final PageFile _file;
+    /** _offsets[p] is the position of my page #p in _file, for each full
+     *  page, and _offsets[p + 1] its end.  Replaced by a larger copy when
+     *  full, so that readers of earlier pages need no lock. */
+    private volatile long[] _offsets;
+    /** My last page, which is not yet full, and is never in the pool. */
+    private volatile Page _tail;
+    /** The page most recently used by row(int), kept to save looking it
+     *  up in the pool for each value. */
+    private volatile Page _recent;
+    /** My number of rows. */
+    private int _size;
+}
@@ -0,0 +1,122 @@
+package db61b;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BooleanSupplier;
+
+/** An Operator that visits, in increasing order, the rows of one Table
+ *  that satisfy a list of Conditions, like a Filter over a Scan, but
+ *  testing the rows in parallel.  On the first call of next(), the rows
+ *  are split into ranges that are tested concurrently on the common
+ *  ForkJoinPool, each with its own TableIterator; the numbers of the
+ *  rows that pass are then concatenated in range order, so that the
+ *  results are the same, in the same order, as those of the serial
+ *  plan.
+ *  @author JuKyung Choi
+ */
+class ParallelFilter extends Operator {
+
+    /** Tables with at least this many rows are filtered in parallel.  Set
+     *  with the system property db61b.parallelScanRows. */
+    static final int PARALLEL_THRESHOLD =
+        Integer.getInteger("db61b.parallelScanRows", 1 << 16);
+
+    /** Ranges of at most this many rows are tested by a single task. */
+    private static final int GRAIN = 1 << 12;
+
+    /** The rows of IT's Table that satisfy all of CONDITIONS, whose
+     *  Columns must be resolved to IT or be Literals. */
+    ParallelFilter(TableIterator it, List<Condition> conditions) {
+        _it = it;
+        _conditions = new ArrayList<>(conditions);
+        reset();
+    }
+
+    @Override
+    boolean next() {
+        if (_rows == null) {
+            Range all = new Range(0, _it.size());
+            _rows = ForkJoinPool.commonPool().invoke(all);
+        }
+        _k += 1;
+        if (_k >= _rows.length) {
+            return false;
+        }
+        _it.setRow(_rows[_k]);
+        return true;
+    }
+
+    @Override
+    void reset() {
+        _k = -1;
+    }
+
+    @Override
+    List<TableIterator> iterators() {
+        return Collections.singletonList(_it);
+    }
+
+    /** A task that returns the numbers, in increasing order, of the rows in
+     *  a range that satisfy _conditions. */
+    private class Range extends RecursiveTask<int[]> {
+
+        /** A task for rows LO .. HI-1. */
+        Range(int lo, int hi) {
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (_hi - _lo > GRAIN) {
+                int mid = (_lo + _hi) >>> 1;
+                Range left = new Range(_lo, mid);
+                left.fork();
+                int[] right = new Range(mid, _hi).compute();
+                int[] result = left.join();
+                int n = result.length;
+                result = Arrays.copyOf(result, n + right.length);
+                System.arraycopy(right, 0, result, n, right.length);
+                return result;
+            }
+            TableIterator it = new TableIterator(_it.table());
+            ArrayList<Condition> conditions = new ArrayList<>();
+            for (Condition cond : _conditions) {
+                conditions.add(cond.moveTo(it));
+            }
+            BooleanSupplier test = Condition.compile(conditions);
+            int[] result = new int[_hi - _lo];
+            int n;
+            n = 0;
+            try {
+                for (int k = _lo; k < _hi; k++) {
+                    it.setRow(k);
+                    if (test.getAsBoolean()) {
+                        result[n] = k;
+                        n += 1;
+                    }
+                }
+            } finally {
+                it.close();
+            }
+            return Arrays.copyOf(result, n);
+        }
+
+        /** Bounds of my rows. */
+        private final int _lo, _hi;
+    }
+
+    /** The iterator I move. */
+    private final TableIterator _it;
+    /** The conditions a row must satisfy. */
+    private final ArrayList<Condition> _conditions;
+    /** Numbers of the rows that satisfy _conditions, or null before next()
+     *  is first called. */
+    private int[] _rows;
+    /** Index in _rows of the current row. */
+    private int _k;
+}
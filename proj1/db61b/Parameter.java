@@ -0,0 +1,32 @@
+package db61b;
+
+/** A Literal whose value may be changed between runs of the Query that
+ *  contains it: either a "?" in a prepared statement, or a literal in a
+ *  select whose parsed form is kept for reuse.
+ *  @author JuKyung Choi
+ */
+class Parameter extends Literal {
+
+    /** A Parameter whose value is VALUE, or that has no value yet if VALUE
+     *  is null. */
+    Parameter(String value) {
+        super(value);
+        _value = value;
+    }
+
+    @Override
+    String value() {
+        if (_value == null) {
+            throw Utils.error("no value given for parameter");
+        }
+        return _value;
+    }
+
+    /** Make VALUE my value. */
+    void bind(String value) {
+        _value = value;
+    }
+
+    /** My current value, or null if I have none. */
+    private String _value;
+}
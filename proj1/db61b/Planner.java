@@ -0,0 +1,215 @@
+package db61b;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/** Chooses how to compute the results of a select clause: which rows of
+ *  each table to examine, in what order to join the tables, and by what
+ *  method.  Choices are made by estimating the number of results each
+ *  step produces, from the sizes of the tables, the selectivities of
+ *  the conditions (see Condition.selectivity), and the numbers of
+ *  distinct values of join columns, when tables have Statistics.
+ *  @author JuKyung Choi
+ */
+class Planner {
+
+    /**
+     * Return an Operator that produces the combinations of rows from
+     * ITERATORS, which must be non-empty, that satisfy CONDITIONS.  All
+     * Columns mentioned in CONDITIONS must be resolved to iterators
+     * listed among ITERATORS, or be Literals.
+     *
+     * Conditions that mention only one table are applied to that table
+     * alone, before any join, and every other condition is applied as
+     * soon as both of the tables it mentions have been joined.  The
+     * tables are joined one at a time: first the pair whose join is
+     * estimated to be smallest, and then, repeatedly, the table whose
+     * join with the result so far is estimated to be smallest, so that
+     * small intermediate results are built first.  Each join is a hash
+     * join if some condition joining its inputs is an equality, a merge
+     * join if one is an ordering comparison, and a nested loop
+     * otherwise.
+     */
+    static Operator plan(List<TableIterator> iterators,
+                         List<Condition> conditions) {
+        ArrayList<Condition> pending = new ArrayList<>(conditions);
+        ArrayList<Input> inputs = new ArrayList<>();
+        for (TableIterator it : iterators) {
+            ArrayList<Condition> filters = new ArrayList<>();
+            for (Condition cond : conditions) {
+                if (pending.contains(cond) && cond.isLocalTo(it)) {
+                    filters.add(cond);
+                    pending.remove(cond);
+                }
+            }
+            inputs.add(scan(it, filters));
+        }
+        if (inputs.size() == 1) {
+            return inputs.get(0)._op;
+        }
+
+        int first = 0, second = 1;
+        double best = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < inputs.size(); i++) {
+            for (int j = i + 1; j < inputs.size(); j++) {
+                double size = joinSize(inputs.get(i), inputs.get(j), pending);
+                if (size < best) {
+                    best = size;
+                    first = i;
+                    second = j;
+                }
+            }
+        }
+        Input result = join(inputs.get(first), inputs.get(second), pending);
+        inputs.remove(second);
+        inputs.remove(first);
+        while (!inputs.isEmpty()) {
+            int next = 0;
+            best = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < inputs.size(); i++) {
+                double size = joinSize(result, inputs.get(i), pending);
+                if (size < best) {
+                    best = size;
+                    next = i;
+                }
+            }
+            result = join(result, inputs.remove(next), pending);
+        }
+        return result._op;
+    }
+
+    /** Return an Input that moves IT through the rows of its table that
+     *  satisfy FILTERS, all of whose Columns are resolved to IT or are
+     *  Literals.  If some filter compares an indexed column with a
+     *  literal, only the rows found through the index are examined, using
+     *  the most selective such filter (an equality before a range, unless
+     *  the table's Statistics say otherwise).  Otherwise, tables of at
+     *  least ParallelFilter.PARALLEL_THRESHOLD rows are filtered in
+     *  parallel. */
+    private static Input scan(TableIterator it, List<Condition> filters) {
+        ArrayList<Condition> ordered = new ArrayList<>(filters);
+        ordered.sort(Comparator.comparingDouble(Condition::selectivity)
+                     .thenComparingInt(Condition::selectivityRank));
+        int[] candidates = null;
+        Condition used = null;
+        for (int i = 0; candidates == null && i < ordered.size(); i++) {
+            candidates = ordered.get(i).indexLookup(it);
+            used = ordered.get(i);
+        }
+
+        double rows;
+        rows = candidates == null ? it.size() : candidates.length;
+        for (Condition cond : filters) {
+            if (cond != used || candidates == null) {
+                rows *= cond.selectivity();
+            }
+        }
+        if (candidates == null && !filters.isEmpty()
+            && it.size() >= ParallelFilter.PARALLEL_THRESHOLD) {
+            return new Input(new ParallelFilter(it, filters), rows);
+        }
+        Scan scan = new Scan(it, candidates);
+        if (filters.isEmpty()) {
+            return new Input(scan, rows);
+        }
+        return new Input(new Filter(scan, filters), rows);
+    }
+
+    /** Return the estimated number of results of joining LEFT and RIGHT
+     *  on those of CONDITIONS that mention both.  An equality between
+     *  them is taken to match each result of the input whose key column
+     *  has more distinct values with at most one of the other, as when
+     *  joining on a key.  Without Statistics, each result's key is taken
+     *  to be distinct. */
+    private static double joinSize(Input left, Input right,
+                                   List<Condition> conditions) {
+        List<TableIterator> its1 = left._op.iterators(),
+            its2 = right._op.iterators();
+        double size = left._rows * right._rows;
+        for (Condition cond : conditions) {
+            if (cond.isEquiJoin(its1, its2)) {
+                double keys1 = distinct(left, cond.columnFrom(its1)),
+                    keys2 = distinct(right, cond.columnFrom(its2));
+                size /= Math.max(1, Math.max(keys1, keys2));
+            } else if (cond.joins(its1, its2)) {
+                size *= cond.selectivity();
+            }
+        }
+        return size;
+    }
+
+    /** Return the estimated number of distinct values of COL, which is
+     *  resolved to one of INPUT's iterators, among INPUT's results. */
+    private static double distinct(Input input, Column col) {
+        Statistics stats = col.source().table().statistics();
+        if (stats == null) {
+            return input._rows;
+        }
+        return Math.min(input._rows, stats.distinct(col.index()));
+    }
+
+    /** Return an Input producing the results of joining LEFT and RIGHT
+     *  that satisfy all of CONDITIONS that mention only their tables,
+     *  removing those conditions from CONDITIONS. */
+    private static Input join(Input left, Input right,
+                              List<Condition> conditions) {
+        double rows = joinSize(left, right, conditions);
+        List<TableIterator> its1 = left._op.iterators(),
+            its2 = right._op.iterators();
+        Operator join = null;
+        for (Condition cond : conditions) {
+            if (cond.isEquiJoin(its1, its2)) {
+                Input build = left._rows <= right._rows ? left : right,
+                    probe = build == left ? right : left;
+                List<TableIterator> buildIts = build._op.iterators(),
+                    probeIts = probe._op.iterators();
+                join = new HashJoin(build._op, cond.columnFrom(buildIts),
+                                    probe._op, cond.columnFrom(probeIts));
+                conditions.remove(cond);
+                break;
+            }
+        }
+        for (int i = 0; join == null && i < conditions.size(); i++) {
+            Condition cond = conditions.get(i);
+            if (cond.isRangeJoin(its1, its2)) {
+                join = new MergeJoin(left._op, right._op, cond);
+                conditions.remove(i);
+            }
+        }
+        if (join == null) {
+            if (left._rows < right._rows) {
+                join = new NestedLoopJoin(right._op, left._op);
+            } else {
+                join = new NestedLoopJoin(left._op, right._op);
+            }
+        }
+
+        ArrayList<Condition> filters = new ArrayList<>();
+        for (Condition cond : conditions) {
+            if (cond.isCoveredBy(join.iterators())) {
+                filters.add(cond);
+            }
+        }
+        conditions.removeAll(filters);
+        if (filters.isEmpty()) {
+            return new Input(join, rows);
+        }
+        return new Input(new Filter(join, filters), rows);
+    }
+
+    /** An Operator together with an estimate of its number of results. */
+    private static class Input {
+        /** An Input for OP, which is expected to produce about ROWS
+         *  results. */
+        Input(Operator op, double rows) {
+            _op = op;
+            _rows = rows;
+        }
+
+        /** The Operator. */
+        private final Operator _op;
+        /** Estimated number of results of _op. */
+        private final double _rows;
+    }
+}
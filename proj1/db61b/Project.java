@@ -0,0 +1,54 @@
+package db61b;
+
+import java.util.List;
+
+/** The last stage of a query pipeline: for each result of its input, it
+ *  forms a Row of the values of a list of Columns.
+ *  @author JuKyung Choi
+ */
+class Project {
+
+    /** The Rows of the values of COLUMNS, which must be resolved to
+     *  iterators of INPUT, for each result of INPUT. */
+    Project(Operator input, List<Column> columns) {
+        _input = input;
+        _columns = columns;
+    }
+
+    /** Move to my next Row, returning false, and closing myself, if there
+     *  are no more. */
+    boolean next() {
+        if (_input.next()) {
+            return true;
+        }
+        close();
+        return false;
+    }
+
+    /** Release the pages pinned by my iterators (see TableIterator.close).
+     *  Must be called if I am abandoned before next() returns false. */
+    void close() {
+        for (TableIterator it : _input.iterators()) {
+            it.close();
+        }
+    }
+
+    /** Return my current Row. */
+    Row row() {
+        return Row.make(_columns);
+    }
+
+    /** Return the types of the values in my Rows. */
+    ColumnType[] types() {
+        ColumnType[] types = new ColumnType[_columns.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = _columns.get(i).type();
+        }
+        return types;
+    }
+
+    /** Source of results. */
+    private final Operator _input;
+    /** The columns forming my Rows. */
+    private final List<Column> _columns;
+}
@@ -0,0 +1,96 @@
+package db61b;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static db61b.Utils.*;
+
+/** A parsed select clause, with its Columns resolved, that can be run any
+ *  number of times with different values for its Parameters.  Each run
+ *  is planned afresh (see Planner), since the best plan may depend on
+ *  the parameters' values and on the current contents of the tables.
+ *  @author JuKyung Choi
+ */
+class Query {
+
+    /** A Query producing the values of COLUMNS, whose titles are TITLES,
+     *  for each combination of rows from ITERATORS that satisfies
+     *  CONDITIONS.  PARAMETERS are the Parameters in CONDITIONS, in the
+     *  order in which they appeared in TEXT, the text of the clause after
+     *  "select" and before the terminating ";".  COLUMNS and CONDITIONS
+     *  must be resolved to ITERATORS. */
+    Query(List<TableIterator> iterators, List<Condition> conditions,
+          List<Column> columns, List<String> titles,
+          List<Parameter> parameters, String text) {
+        _iterators = new ArrayList<>(iterators);
+        _conditions = new ArrayList<>(conditions);
+        _columns = new ArrayList<>(columns);
+        _titles = new ArrayList<>(titles);
+        _parameters = new ArrayList<>(parameters);
+        _text = text;
+    }
+
+    /** Return my text, from which I can be parsed again. */
+    String text() {
+        return _text;
+    }
+
+    /** Return the titles of my columns. */
+    List<String> titles() {
+        return _titles;
+    }
+
+    /** Return my number of Parameters. */
+    int numParameters() {
+        return _parameters.size();
+    }
+
+    /** Give my Parameters the values VALUES, in order. */
+    void bind(List<String> values) {
+        if (values.size() != _parameters.size()) {
+            throw error("expected %d parameter values, got %d",
+                        _parameters.size(), values.size());
+        }
+        for (int i = 0; i < values.size(); i++) {
+            _parameters.get(i).bind(values.get(i));
+        }
+    }
+
+    /** Return true iff the tables I select from are still the ones named
+     *  by their names in DATABASE (that is, none has been replaced by a
+     *  load or create since I was parsed). */
+    boolean isCurrent(Map<String, Table> database) {
+        for (TableIterator it : _iterators) {
+            if (database.get(it.table().name()) != it.table()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return a pipeline producing my rows (possibly with duplicates) for
+     *  the current values of my Parameters, from the rows of my tables in
+     *  the latest snapshot.  Rows added to the tables while the pipeline
+     *  runs are not seen. */
+    Project rows() {
+        long snapshot = Table.snapshot();
+        for (TableIterator it : _iterators) {
+            it.open(snapshot);
+        }
+        return new Project(Planner.plan(_iterators, _conditions), _columns);
+    }
+
+    /** The iterators over the tables I select from. */
+    private final ArrayList<TableIterator> _iterators;
+    /** The conditions my rows satisfy. */
+    private final ArrayList<Condition> _conditions;
+    /** The columns of my rows. */
+    private final ArrayList<Column> _columns;
+    /** Titles of _columns. */
+    private final ArrayList<String> _titles;
+    /** The Parameters in _conditions. */
+    private final ArrayList<Parameter> _parameters;
+    /** My text. */
+    private final String _text;
+}
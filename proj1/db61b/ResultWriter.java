@@ -0,0 +1,150 @@
+package db61b;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static db61b.Utils.*;
+
+/** Writes the rows produced by print and select statements, either to a
+ *  session's output, indented and separated by blanks, or to a file, in
+ *  the format of a .db file.  Rows are formatted directly into a large
+ *  buffer, which is written out a block at a time, rather than sent to a
+ *  PrintStream such as System.out (which flushes and locks on every call)
+ *  a few characters at a time.
+ *  @author JuKyung Choi
+ */
+class ResultWriter {
+
+    /** Size of the output buffer, in characters. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** End-of-line sequence, as written by println. */
+    private static final String NEWLINE = System.lineSeparator();
+
+    /** A ResultWriter that writes to OUT, starting each row with INDENT
+     *  and separating its values with SEPARATOR.  DESCRIPTION names OUT in
+     *  error messages. */
+    private ResultWriter(Writer out, String indent, char separator,
+                         String description) {
+        _out = new BufferedWriter(out, BUFFER_SIZE);
+        _indent = indent;
+        _separator = separator;
+        _description = description;
+    }
+
+    /** Return a ResultWriter that writes rows to OUT as print and select
+     *  display them, encoded in UTF-8, the encoding of all of db61b's
+     *  input and output (see Main and Server). */
+    static ResultWriter output(PrintStream out) {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        return new ResultWriter(writer, "  ", ' ', "the output");
+    }
+
+    /** Return a ResultWriter that writes rows to the file NAME in the
+     *  format of a .db file (see Table.writeTable), replacing any previous
+     *  contents.  Throws a DBException if the file cannot be created. */
+    static ResultWriter file(String name) {
+        try {
+            Writer out = new OutputStreamWriter(new FileOutputStream(name),
+                                                StandardCharsets.UTF_8);
+            return new ResultWriter(out, "", ',', name);
+        } catch (IOException e) {
+            throw error("trouble writing to %s", name);
+        }
+    }
+
+    /** Write the column titles TITLES, of columns of the corresponding
+     *  TYPES, as the header of a .db file (see Table.header). */
+    void writeHeader(List<String> titles, ColumnType[] types) {
+        try {
+            for (int i = 0; i < titles.size(); i++) {
+                if (i > 0) {
+                    _out.write(_separator);
+                }
+                _out.write(titles.get(i));
+                if (types[i] != ColumnType.STRING) {
+                    _out.write(':');
+                    _out.write(types[i].toString());
+                }
+            }
+            _out.write(NEWLINE);
+        } catch (IOException e) {
+            throw error("trouble writing to %s", _description);
+        }
+    }
+
+    /** Write ROW. */
+    void writeRow(Row row) {
+        try {
+            _out.write(_indent);
+            for (int i = 0; i < row.size(); i++) {
+                if (i > 0) {
+                    _out.write(_separator);
+                }
+                _out.write(row.get(i));
+            }
+            _out.write(NEWLINE);
+            _rows += 1;
+        } catch (IOException e) {
+            throw error("trouble writing to %s", _description);
+        }
+    }
+
+    /** Write row #K of TABLE. */
+    void writeRow(Table table, int k) {
+        try {
+            _out.write(_indent);
+            for (int i = 0; i < table.numColumns(); i++) {
+                if (i > 0) {
+                    _out.write(_separator);
+                }
+                _out.write(table.get(k, i));
+            }
+            _out.write(NEWLINE);
+            _rows += 1;
+        } catch (IOException e) {
+            throw error("trouble writing to %s", _description);
+        }
+    }
+
+    /** Return the number of rows written so far. */
+    int rows() {
+        return _rows;
+    }
+
+    /** Write out everything written to me so far. */
+    void flush() {
+        try {
+            _out.flush();
+        } catch (IOException e) {
+            throw error("trouble writing to %s", _description);
+        }
+    }
+
+    /** Write out everything written to me so far, and close my file.  Must
+     *  not be used on a session's output. */
+    void close() {
+        try {
+            _out.close();
+        } catch (IOException e) {
+            throw error("trouble writing to %s", _description);
+        }
+    }
+
+    /** Destination of the output. */
+    private final BufferedWriter _out;
+    /** Text that starts each row. */
+    private final String _indent;
+    /** Separates the values in a row. */
+    private final char _separator;
+    /** Names _out in error messages. */
+    private final String _description;
+    /** Number of rows written. */
+    private int _rows;
+}
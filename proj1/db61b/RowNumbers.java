@@ -0,0 +1,54 @@
+package db61b;
+
+import java.util.Arrays;
+import java.util.List;
+
+/** A growable list of saved positions of a fixed list of TableIterators:
+ *  each entry holds the current row number of each iterator at the time
+ *  it was added.  Lets joins buffer the results of an input compactly.
+ *  @author JuKyung Choi
+ */
+class RowNumbers {
+
+    /** Initial number of entries allocated. */
+    private static final int INITIAL_SIZE = 16;
+
+    /** An empty list of the positions of ITERATORS. */
+    RowNumbers(List<TableIterator> iterators) {
+        _iterators = iterators;
+        _width = iterators.size();
+        _rows = new int[INITIAL_SIZE * _width];
+    }
+
+    /** Return my number of entries. */
+    int size() {
+        return _size;
+    }
+
+    /** Append the current positions of my iterators. */
+    void add() {
+        if ((_size + 1) * _width > _rows.length) {
+            _rows = Arrays.copyOf(_rows, 2 * _rows.length);
+        }
+        for (int i = 0; i < _width; i++) {
+            _rows[_size * _width + i] = _iterators.get(i).rowNumber();
+        }
+        _size += 1;
+    }
+
+    /** Move my iterators back to the positions saved in entry #K. */
+    void restore(int k) {
+        for (int i = 0; i < _width; i++) {
+            _iterators.get(i).setRow(_rows[k * _width + i]);
+        }
+    }
+
+    /** The iterators whose positions I save. */
+    private final List<TableIterator> _iterators;
+    /** Number of iterators (and so row numbers per entry). */
+    private final int _width;
+    /** Entry #k is in _rows[k * _width .. (k + 1) * _width - 1]. */
+    private int[] _rows;
+    /** Number of entries. */
+    private int _size;
+}
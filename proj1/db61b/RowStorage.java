@@ -0,0 +1,54 @@
+package db61b;
+
+import java.util.Arrays;
+
+/** Storage that keeps each row as a Row object.
+ *  @author JuKyung Choi
+ */
+class RowStorage extends Storage {
+
+    /** Initial number of rows allocated. */
+    private static final int INITIAL_ROWS = 16;
+
+    /** An empty RowStorage for rows whose values have types TYPES. */
+    RowStorage(ColumnType[] types) {
+        super(types);
+        _rows = new Row[INITIAL_ROWS];
+    }
+
+    @Override
+    int size() {
+        return _size;
+    }
+
+    @Override
+    String get(int row, int col) {
+        return _rows[row].get(col);
+    }
+
+    @Override
+    void add(Row row) {
+        Row[] rows = _rows;
+        if (_size == rows.length) {
+            rows = _rows = Arrays.copyOf(rows, 2 * _size);
+        }
+        rows[_size] = row;
+        _size += 1;
+    }
+
+    @Override
+    Row row(int k) {
+        return _rows[k];
+    }
+
+    @Override
+    boolean rowEquals(int k, Row row) {
+        return row.equals(_rows[k]);
+    }
+
+    /** My rows, in order, in _rows[0 .. _size-1].  Replaced by a larger
+     *  copy when full, so that readers of earlier rows need no lock. */
+    private volatile Row[] _rows;
+    /** My number of rows. */
+    private int _size;
+}
@@ -0,0 +1,54 @@
+package db61b;
+
+import java.util.Collections;
+import java.util.List;
+
+/** An Operator that visits rows of one Table in increasing order: either
+ *  all of them or a given subset (such as one found through an Index).
+ *  @author JuKyung Choi
+ */
+class Scan extends Operator {
+
+    /** A Scan that moves IT through all the rows of its Table. */
+    Scan(TableIterator it) {
+        this(it, null);
+    }
+
+    /** A Scan that moves IT through the rows of its Table numbered ROWS, or
+     *  through all of them if ROWS is null. */
+    Scan(TableIterator it, int[] rows) {
+        _it = it;
+        _rows = rows;
+        reset();
+    }
+
+    @Override
+    boolean next() {
+        _k += 1;
+        if (_k >= _size) {
+            return false;
+        }
+        _it.setRow(_rows == null ? _k : _rows[_k]);
+        return true;
+    }
+
+    @Override
+    void reset() {
+        _k = -1;
+        _size = _rows == null ? _it.size() : _rows.length;
+    }
+
+    @Override
+    List<TableIterator> iterators() {
+        return Collections.singletonList(_it);
+    }
+
+    /** The iterator I move. */
+    private final TableIterator _it;
+    /** The row numbers I visit, or null for all rows. */
+    private final int[] _rows;
+    /** Number of rows to visit, as of the last reset. */
+    private int _size;
+    /** Index of the current row among those I visit. */
+    private int _k;
+}
@@ -0,0 +1,92 @@
+package db61b;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static db61b.Utils.*;
+
+/** Serves one database to many clients at once.  Each connection to a
+ *  port on the local host is a session: its own CommandInterpreter reads
+ *  commands from the connection and writes prompts and results back to
+ *  it, as Main does for the standard input and output.  The sessions
+ *  share one map of tables, log, and StoreQueue.  Each runs on its own
+ *  thread.  Queries read a snapshot of their tables without locking
+ *  them (see Table.size(long)), while statements that add to a table
+ *  are serialized with others that add to the same table.
+ *  @author JuKyung Choi
+ */
+class Server {
+
+    /** The port on which to serve, or null to read the standard input
+     *  instead.  Set with the system property db61b.port; 0 chooses any
+     *  free port. */
+    static final Integer PORT = Integer.getInteger("db61b.port");
+
+    /** Maximum number of connections waiting to be accepted. */
+    private static final int BACKLOG = 50;
+
+    /** Accept connections to PORT on the local host, running a session on
+     *  DATABASE for each, until the program is stopped.  Changes are
+     *  logged in LOG, if it is not null, and tables are stored with
+     *  STORES.  Pending stores finish, and LOG is closed, when the program
+     *  stops.  Throws a DBException if PORT cannot be used. */
+    static void serve(int port, Map<String, Table> database,
+                      WriteAheadLog log, StoreQueue stores) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                stores.sync();
+            } catch (DBException e) {
+                System.out.printf("Error: %s%n", e.getMessage());
+            }
+            if (log != null) {
+                log.close();
+            }
+        }));
+        ExecutorService sessions = Executors.newCachedThreadPool();
+        try (ServerSocket listener =
+                 new ServerSocket(port, BACKLOG,
+                                  InetAddress.getLoopbackAddress())) {
+            System.out.printf("Listening on port %d%n",
+                              listener.getLocalPort());
+            while (true) {
+                Socket socket = listener.accept();
+                sessions.execute(() -> session(socket, database, log, stores));
+            }
+        } catch (IOException e) {
+            throw error("cannot accept connections on port %d", port);
+        } finally {
+            sessions.shutdown();
+        }
+    }
+
+    /** Run a session on DATABASE, LOG, and STORES that reads commands from
+     *  SOCKET and writes to it, and then close SOCKET. */
+    private static void session(Socket socket, Map<String, Table> database,
+                                WriteAheadLog log, StoreQueue stores) {
+        try (Socket connection = socket) {
+            PrintStream output =
+                new PrintStream(new BufferedOutputStream(
+                                    connection.getOutputStream()),
+                                true, StandardCharsets.UTF_8);
+            InputStreamReader input =
+                new InputStreamReader(connection.getInputStream(),
+                                      StandardCharsets.UTF_8);
+            output.printf("DB61B System.  Version %s.%n", Main.VERSION);
+            Main.run(new CommandInterpreter(database, input, output, log,
+                                            stores),
+                     output);
+            output.flush();
+        } catch (IOException e) {
+            /* Ignore: the client has gone. */
+        }
+    }
+}
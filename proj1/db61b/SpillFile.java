@@ -0,0 +1,188 @@
+package db61b;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static db61b.Utils.*;
+
+/** A temporary file holding part of the state of a query operator that
+ *  does not fit in its memory budget, WORK_MEMORY.  Operators that run
+ *  out of memory divide their state, and the rest of their input, into
+ *  PARTITIONS spill files on a hash of each item's key, and then process
+ *  the partitions one at a time.  A partition that is itself too large is
+ *  divided again, on other bits of the hash, up to MAX_LEVEL times.  A
+ *  spill file is written as a sequence of records of strings and
+ *  integers, and then read back once, in order.  It is deleted once it
+ *  has been read, and is not created until something is written to it.
+ *  @author JuKyung Choi
+ */
+class SpillFile {
+
+    /** Approximate number of bytes of memory that each join or duplicate
+     *  elimination may use for its state before spilling it.  Set with the
+     *  system property db61b.workMemory; by default, an eighth of the
+     *  heap. */
+    static final long WORK_MEMORY =
+        Long.getLong("db61b.workMemory", Runtime.getRuntime().maxMemory() / 8);
+
+    /** Number of bits of hash that select a partition at each level. */
+    private static final int PARTITION_BITS = 4;
+    /** Number of partitions into which state is divided at each level. */
+    static final int PARTITIONS = 1 << PARTITION_BITS;
+    /** Deepest level of partitioning; partitions at this level are
+     *  processed in memory however large they are. */
+    static final int MAX_LEVEL = 3;
+    /** Multiplier that mixes the bits of hash codes (see partition). */
+    private static final int MIX = 0x9e3779b9;
+
+    /** Return the number of the partition at level LEVEL to which items
+     *  with hash code HASH belong. */
+    static int partition(int hash, int level) {
+        int shift = Integer.SIZE - PARTITION_BITS * (level + 1);
+        return ((hash * MIX) >>> shift) & (PARTITIONS - 1);
+    }
+
+    /** Return PARTITIONS new, empty spill files, for the partitions at
+     *  level LEVEL. */
+    static SpillFile[] partitions(int level) {
+        SpillFile[] files = new SpillFile[PARTITIONS];
+        for (int p = 0; p < PARTITIONS; p++) {
+            files[p] = new SpillFile(level);
+        }
+        return files;
+    }
+
+    /** An empty spill file for a partition at level LEVEL. */
+    SpillFile(int level) {
+        _level = level;
+    }
+
+    /** Return the level of my partition. */
+    int level() {
+        return _level;
+    }
+
+    /** Append VALUE to the current record. */
+    void writeString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        try {
+            output().writeInt(bytes.length);
+            output().write(bytes);
+        } catch (IOException e) {
+            throw error("trouble writing to spill file");
+        }
+    }
+
+    /** Append VALUE to the current record. */
+    void writeInt(int value) {
+        try {
+            output().writeInt(value);
+        } catch (IOException e) {
+            throw error("trouble writing to spill file");
+        }
+    }
+
+    /** End the current record. */
+    void endRecord() {
+        _size += 1;
+    }
+
+    /** Move to my next record, returning false if there are no more.  No
+     *  more records may be written after this is first called. */
+    boolean nextRecord() {
+        if (_read == _size) {
+            close();
+            return false;
+        }
+        if (_in == null) {
+            try {
+                _out.flush();
+                _channel.position(0);
+                _in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(_channel)));
+            } catch (IOException e) {
+                throw error("problem reading from spill file");
+            }
+        }
+        _read += 1;
+        return true;
+    }
+
+    /** Return the next string of the current record. */
+    String readString() {
+        try {
+            byte[] bytes = new byte[_in.readInt()];
+            _in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw error("problem reading from spill file");
+        }
+    }
+
+    /** Return the next integer of the current record. */
+    int readInt() {
+        try {
+            return _in.readInt();
+        } catch (IOException e) {
+            throw error("problem reading from spill file");
+        }
+    }
+
+    /** Delete me.  Any records not yet read are lost. */
+    void close() {
+        if (_channel != null) {
+            try {
+                _channel.close();
+            } catch (IOException e) {
+                /* Ignore: the file is deleted anyway. */
+            }
+        }
+        _channel = null;
+        _in = null;
+        _out = null;
+        _read = _size;
+    }
+
+    /** Return the stream that writes my records, creating my file if need
+     *  be.  The file is deleted as soon as it is open where the system
+     *  allows, and otherwise when it is closed. */
+    private DataOutputStream output() throws IOException {
+        if (_out == null) {
+            Path path = Files.createTempFile("db61b", ".spill");
+            _channel = FileChannel.open(path, StandardOpenOption.READ,
+                                        StandardOpenOption.WRITE,
+                                        StandardOpenOption.DELETE_ON_CLOSE);
+            try {
+                Files.delete(path);
+            } catch (IOException e) {
+                /* Ignore: deleted on close instead. */
+            }
+            _out = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(_channel)));
+        }
+        return _out;
+    }
+
+    /** Level of my partition. */
+    private final int _level;
+    /** Open channel to my file, or null if it has not been created or has
+     *  been deleted. */
+    private FileChannel _channel;
+    /** Writes my records, or null before the first is written. */
+    private DataOutputStream _out;
+    /** Reads my records, or null before the first is read. */
+    private DataInputStream _in;
+    /** Number of records written. */
+    private int _size;
+    /** Number of records read. */
+    private int _read;
+}
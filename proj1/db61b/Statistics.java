@@ -0,0 +1,341 @@
+package db61b;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static db61b.Utils.*;
+
+/** The value distributions of the columns of a Table, as computed by an
+ *  analyze statement, from which the Planner estimates the selectivities
+ *  of conditions.  For each column, they record the estimated number of
+ *  distinct values (see HyperLogLog), the number of empty values (db61b's
+ *  nearest thing to nulls), the least and greatest non-empty values, and
+ *  an equi-depth histogram: BUCKETS + 1 values that divide the non-empty
+ *  values, in order, into BUCKETS groups of about equal size, taken from a
+ *  random sample of at most SAMPLE_SIZE of them.  Statistics describe the
+ *  rows a table had when it was analyzed; they are not updated as rows
+ *  are added, but are stored with the table, in NAME.stats.
+ *  @author JuKyung Choi
+ */
+class Statistics {
+
+    /** Number of groups in each histogram. */
+    static final int BUCKETS = 16;
+    /** Largest number of values of a column from which its histogram is
+     *  computed. */
+    private static final int SAMPLE_SIZE = 1 << 14;
+    /** Seed of the random choice of samples, fixed so that analyzing the
+     *  same rows always gives the same statistics. */
+    private static final long SEED = 61;
+    /** Number of values read from a table at a time. */
+    private static final int READ_BLOCK = 1 << 12;
+    /** Identifies .stats files. */
+    private static final int MAGIC = 0x44423653;
+    /** Current format version of .stats files. */
+    private static final int VERSION = 1;
+
+    /** Return the statistics of the rows that TABLE has now. */
+    static Statistics analyze(Table table) {
+        int numRows = table.size();
+        int numColumns = table.numColumns();
+        Statistics stats = new Statistics(numRows, numColumns);
+        for (int c = 0; c < numColumns; c++) {
+            stats._titles[c] = table.title(c);
+            stats._types[c] = table.type(c);
+            stats.analyzeColumn(table, c);
+        }
+        return stats;
+    }
+
+    /** Statistics of NUMROWS rows of NUMCOLUMNS columns, to be filled in
+     *  by the caller. */
+    private Statistics(int numRows, int numColumns) {
+        _rows = numRows;
+        _titles = new String[numColumns];
+        _types = new ColumnType[numColumns];
+        _distinct = new long[numColumns];
+        _empty = new int[numColumns];
+        _min = new String[numColumns];
+        _max = new String[numColumns];
+        _bounds = new String[numColumns][];
+    }
+
+    /** Compute my statistics of column #C from the first _rows rows of
+     *  TABLE. */
+    private void analyzeColumn(Table table, int c) {
+        ColumnType type = _types[c];
+        HyperLogLog distinct = new HyperLogLog();
+        String[] sample = new String[Math.min(_rows, SAMPLE_SIZE)];
+        Random random = new Random(SEED);
+        int numValues = 0;
+        for (int start = 0; start < _rows; start += READ_BLOCK) {
+            int end = Math.min(_rows, start + READ_BLOCK);
+            for (String value : table.values(c, start, end)) {
+                if (value.isEmpty()) {
+                    _empty[c] += 1;
+                    continue;
+                }
+                distinct.add(value);
+                if (_min[c] == null || type.compare(value, _min[c]) < 0) {
+                    _min[c] = value;
+                }
+                if (_max[c] == null || type.compare(value, _max[c]) > 0) {
+                    _max[c] = value;
+                }
+                if (numValues < sample.length) {
+                    sample[numValues] = value;
+                } else {
+                    int k = random.nextInt(numValues + 1);
+                    if (k < sample.length) {
+                        sample[k] = value;
+                    }
+                }
+                numValues += 1;
+            }
+        }
+        _distinct[c] = distinct.estimate();
+        if (numValues == 0) {
+            return;
+        }
+        sample = Arrays.copyOf(sample, Math.min(numValues, sample.length));
+        Arrays.sort(sample, type::compare);
+        String[] bounds = new String[BUCKETS + 1];
+        for (int i = 0; i <= BUCKETS; i++) {
+            int k = (int) ((long) i * (sample.length - 1) / BUCKETS);
+            bounds[i] = sample[k];
+        }
+        bounds[0] = _min[c];
+        bounds[BUCKETS] = _max[c];
+        _bounds[c] = bounds;
+    }
+
+    /** Return the number of rows I describe. */
+    int rows() {
+        return _rows;
+    }
+
+    /** Return the estimated number of distinct non-empty values of column
+     *  #COL. */
+    long distinct(int col) {
+        return _distinct[col];
+    }
+
+    /** Return the estimated fraction of rows whose value in column #COL is
+     *  VALUE, which is in canonical form: the fraction of empty values if
+     *  VALUE is empty, and otherwise none if VALUE is out of the range of
+     *  the column's values, or else an equal share of the non-empty
+     *  values. */
+    double equalFraction(int col, String value) {
+        if (_rows == 0) {
+            return 0;
+        } else if (value.isEmpty()) {
+            return (double) _empty[col] / _rows;
+        } else if (_min[col] == null
+                   || _types[col].compare(value, _min[col]) < 0
+                   || _types[col].compare(value, _max[col]) > 0) {
+            return 0;
+        }
+        return nonEmptyFraction(col) / Math.max(1, _distinct[col]);
+    }
+
+    /** Return the estimated fraction of rows whose value in column #COL is
+     *  less than VALUE, which is in canonical form, or at most VALUE, if
+     *  INCLUSIVE.  Empty values are taken to be less than all others. */
+    double lessFraction(int col, String value, boolean inclusive) {
+        if (_rows == 0) {
+            return 0;
+        }
+        double fraction = 0;
+        if (!value.isEmpty()) {
+            fraction = (double) _empty[col] / _rows
+                + nonEmptyFraction(col) * histogramFraction(col, value);
+        }
+        if (inclusive) {
+            fraction += equalFraction(col, value);
+        }
+        return Math.min(1, fraction);
+    }
+
+    /** Return the fraction of my rows whose value in column #COL is not
+     *  empty. */
+    private double nonEmptyFraction(int col) {
+        return (double) (_rows - _empty[col]) / _rows;
+    }
+
+    /** Return the estimated fraction of the non-empty values of column
+     *  #COL that are less than VALUE, which is not empty, from the column's
+     *  histogram.  Within a group, numeric and date values are assumed to
+     *  be spread evenly, and others to fall in the middle. */
+    private double histogramFraction(int col, String value) {
+        String[] bounds = _bounds[col];
+        ColumnType type = _types[col];
+        if (bounds == null || type.compare(value, bounds[0]) <= 0) {
+            return 0;
+        } else if (type.compare(value, bounds[BUCKETS]) > 0) {
+            return 1;
+        }
+        int i;
+        for (i = 0; type.compare(value, bounds[i + 1]) > 0; i += 1) {
+            /* bounds[i] < value; keep looking for the group holding it. */
+        }
+        double within = 0.5;
+        if (type.isIntegral()) {
+            double lo = type.toLong(bounds[i]),
+                hi = type.toLong(bounds[i + 1]);
+            within = (type.toLong(value) - lo) / (hi - lo);
+        } else if (type.isNumeric()) {
+            double lo = type.toDouble(bounds[i]),
+                hi = type.toDouble(bounds[i + 1]);
+            within = (type.toDouble(value) - lo) / (hi - lo);
+        }
+        return (i + within) / BUCKETS;
+    }
+
+    /** Print a summary of my statistics, one line per column, on
+     *  OUTPUT. */
+    void print(PrintStream output) {
+        for (int c = 0; c < _titles.length; c++) {
+            output.printf("  %s: %d distinct, %d empty", _titles[c],
+                          _distinct[c], _empty[c]);
+            if (_min[c] != null) {
+                output.printf(", from %s to %s", _min[c], _max[c]);
+            }
+            output.println();
+        }
+    }
+
+    /** Return the file that holds the statistics of table NAME. */
+    static File file(String name) {
+        return new File(name + ".stats");
+    }
+
+    /** Write me to NAME.stats, replacing any earlier version atomically.
+     *  Errors cause a DBException. */
+    void write(String name) {
+        File file = file(name), temp = new File(name + ".stats.tmp");
+        try (FileOutputStream stream = new FileOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(stream))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(_rows);
+            out.writeInt(_titles.length);
+            for (int c = 0; c < _titles.length; c++) {
+                writeString(out, _titles[c]);
+                out.writeInt(_types[c].ordinal());
+                out.writeLong(_distinct[c]);
+                out.writeInt(_empty[c]);
+                out.writeInt(_bounds[c] == null ? 0 : _bounds[c].length);
+                if (_bounds[c] != null) {
+                    for (String bound : _bounds[c]) {
+                        writeString(out, bound);
+                    }
+                }
+            }
+            out.flush();
+            stream.getFD().sync();
+        } catch (IOException e) {
+            throw error("trouble writing to %s.stats", name);
+        }
+        try {
+            BinaryTable.replace(temp, file);
+        } catch (IOException e) {
+            throw error("trouble writing to %s.stats", name);
+        }
+    }
+
+    /** Remove NAME.stats, if there is one. */
+    static void delete(String name) {
+        file(name).delete();
+    }
+
+    /** Return the statistics in NAME.stats, if there is such a file, and
+     *  they describe columns with the titles and types of TABLE's.
+     *  Otherwise, return null.  Since statistics only guide planning, a
+     *  missing, stale, or unreadable file is not an error. */
+    static Statistics read(String name, Table table) {
+        File file = file(name);
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            int numRows = in.readInt(), numColumns = in.readInt();
+            if (numColumns != table.numColumns()) {
+                return null;
+            }
+            Statistics stats = new Statistics(numRows, numColumns);
+            for (int c = 0; c < numColumns; c++) {
+                stats._titles[c] = readString(in);
+                int type = in.readInt();
+                if (!stats._titles[c].equals(table.title(c))
+                    || type != table.type(c).ordinal()) {
+                    return null;
+                }
+                stats._types[c] = table.type(c);
+                stats._distinct[c] = in.readLong();
+                stats._empty[c] = in.readInt();
+                int numBounds = in.readInt();
+                if (numBounds > 0) {
+                    if (numBounds != BUCKETS + 1) {
+                        return null;
+                    }
+                    String[] bounds = new String[numBounds];
+                    for (int i = 0; i < numBounds; i++) {
+                        bounds[i] = readString(in);
+                    }
+                    stats._bounds[c] = bounds;
+                    stats._min[c] = bounds[0];
+                    stats._max[c] = bounds[BUCKETS];
+                }
+            }
+            return stats;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** Write VALUE to OUT as its length in UTF-8 bytes and those bytes. */
+    private static void writeString(DataOutputStream out, String value)
+        throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Return a string read from IN, as written by writeString. */
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Number of rows described. */
+    private final int _rows;
+    /** Titles and types of the columns. */
+    private final String[] _titles;
+    private final ColumnType[] _types;
+    /** Estimated number of distinct non-empty values of each column. */
+    private final long[] _distinct;
+    /** Number of empty values of each column. */
+    private final int[] _empty;
+    /** Least and greatest non-empty values of each column, or null if it
+     *  has none. */
+    private final String[] _min, _max;
+    /** Histogram bounds of each column (see above), or null if it has no
+     *  non-empty values. */
+    private final String[][] _bounds;
+}
@@ -0,0 +1,121 @@
+package db61b;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/** The rows of a Table, numbered 0 .. size()-1 in the order in which they
+ *  were added.  Subclasses choose how the values are laid out in memory.
+ *  Any number of threads may read rows while one thread adds rows, as
+ *  long as each reads only rows whose addition it has seen (see
+ *  Table.size(long)).
+ *  @author JuKyung Choi
+ */
+abstract class Storage {
+
+    /** Return a new, empty Storage for rows whose values have types TYPES,
+     *  laid out as MODE ("rows", "columnar", or "paged") directs.  Rows
+     *  with typed values are laid out in columns rather than as Row
+     *  objects, so that those values can be kept in primitive form. */
+    static Storage make(String mode, ColumnType[] types) {
+        for (ColumnType type : types) {
+            if (type != ColumnType.STRING && mode.equals("rows")) {
+                mode = "columnar";
+            }
+        }
+        switch (mode) {
+        case "rows":
+            return new RowStorage(types);
+        case "columnar":
+            return new ColumnarStorage(types);
+        case "paged":
+            return new PagedStorage(types, BufferPool.POOL);
+        default:
+            throw Utils.error("unknown storage mode: %s", mode);
+        }
+    }
+
+    /** A Storage for rows whose values have types TYPES. */
+    Storage(ColumnType[] types) {
+        _types = types;
+    }
+
+    /** Return my number of rows. */
+    abstract int size();
+
+    /** Return the value of column #COL in row #ROW. */
+    abstract String get(int row, int col);
+
+    /** Return the value of column #COL, which must be an INT or DATE, in
+     *  row #ROW, as a long. */
+    long getLong(int row, int col) {
+        return _types[col].toLong(get(row, col));
+    }
+
+    /** Return the value of column #COL, which must be numeric, in row #ROW,
+     *  as a double. */
+    double getDouble(int row, int col) {
+        return _types[col].toDouble(get(row, col));
+    }
+
+    /** Append ROW, whose typed values must be in canonical form, as my row
+     *  #size(). */
+    abstract void add(Row row);
+
+    /** Return row #K as a Row. */
+    Row row(int k) {
+        String[] data = new String[numColumns()];
+        for (int c = 0; c < data.length; c++) {
+            data[c] = get(k, c);
+        }
+        return new Row(data);
+    }
+
+    /** Return the Page holding my row #K, pinned so that it stays in
+     *  memory until passed to unpin, or null if I keep all my rows in
+     *  memory anyway. */
+    Page pin(int k) {
+        return null;
+    }
+
+    /** Release PAGE, returned by pin. */
+    void unpin(Page page) {
+    }
+
+    /** Return the number of values in each of my rows. */
+    int numColumns() {
+        return _types.length;
+    }
+
+    /** Return the type of column #COL. */
+    ColumnType type(int col) {
+        return _types[col];
+    }
+
+    /** Return true iff row #K has the same values as ROW. */
+    boolean rowEquals(int k, Row row) {
+        for (int c = 0; c < row.size(); c++) {
+            if (!row.get(c).equals(get(k, c))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return a read-only List view of my rows. */
+    List<Row> rows() {
+        return new AbstractList<Row>() {
+            @Override
+            public Row get(int k) {
+                return row(k);
+            }
+
+            @Override
+            public int size() {
+                return Storage.this.size();
+            }
+        };
+    }
+
+    /** The types of the columns. */
+    private final ColumnType[] _types;
+}
@@ -0,0 +1,146 @@
+package db61b;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static db61b.Utils.*;
+
+/** Writes tables to their files on a background thread, so that store
+ *  statements need not wait for them.  Each store writes the rows that
+ *  its table had when the store was requested; since rows are only ever
+ *  added to a table, later statements may go on adding to it meanwhile.
+ *  Stores are performed one at a time, in the order requested, even when
+ *  requested by concurrent sessions.  Errors are reported by the next
+ *  call of await for the same table, or of sync.
+ *  @author JuKyung Choi
+ */
+class StoreQueue {
+
+    /** A queue that records completed stores in LOG, unless it is
+     *  null. */
+    StoreQueue(WriteAheadLog log) {
+        _log = log;
+        _latest = new HashMap<>();
+        _failures = new LinkedHashMap<>();
+        _writer = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "db61b-store");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Start writing the current rows of TABLE to its .dbb file, if
+     *  BINARY, and otherwise to its .db file, and its current statistics,
+     *  if any, to its .stats file. */
+    synchronized void store(Table table, boolean binary) {
+        String name = table.name();
+        int numRows;
+        long position;
+        /* Inserts add a row and log it while holding the table's lock, so
+         * that every insert logged before POSITION is among the first
+         * NUMROWS rows. */
+        synchronized (table) {
+            position = _log == null ? 0 : _log.position();
+            numRows = table.size();
+        }
+        Statistics stats = table.statistics();
+        _latest.put(name, _writer.submit(() -> {
+            try {
+                if (binary) {
+                    BinaryTable.write(table, name, numRows);
+                } else {
+                    table.writeTable(name, numRows);
+                }
+                if (stats != null) {
+                    stats.write(name);
+                } else {
+                    Statistics.delete(name);
+                }
+                if (_log != null) {
+                    _log.stored(name, position);
+                }
+            } catch (DBException e) {
+                synchronized (_failures) {
+                    _failures.putIfAbsent(name, e.getMessage());
+                }
+            }
+        }));
+    }
+
+    /** Wait until all stores of the table named NAME have finished,
+     *  throwing a DBException if one of them has failed since its
+     *  failures were last reported. */
+    void await(String name) {
+        Future<?> latest;
+        synchronized (this) {
+            latest = _latest.remove(name);
+        }
+        if (latest != null) {
+            waitFor(latest);
+        }
+        String message;
+        synchronized (_failures) {
+            message = _failures.remove(name);
+        }
+        if (message != null) {
+            throw error("%s", message);
+        }
+    }
+
+    /** Wait until all stores have finished, throwing a DBException if any
+     *  store has failed since failures were last reported. */
+    void sync() {
+        Future<?> last;
+        synchronized (this) {
+            _latest.clear();
+            last = _writer.submit(() -> { });
+        }
+        waitFor(last);
+        reportFailures();
+    }
+
+    /** Wait for TASK to finish. */
+    private static void waitFor(Future<?> task) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                task.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                throw error("store failed: %s", e.getCause());
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Throw a DBException describing the first store that has failed
+     *  since the last report, if any, forgetting all failures. */
+    private void reportFailures() {
+        synchronized (_failures) {
+            if (!_failures.isEmpty()) {
+                String message = _failures.values().iterator().next();
+                _failures.clear();
+                throw error("%s", message);
+            }
+        }
+    }
+
+    /** Log of changes, or null. */
+    private final WriteAheadLog _log;
+    /** The thread that writes tables. */
+    private final ExecutorService _writer;
+    /** Maps table names to the last store of each that may be
+     *  unfinished. */
+    private final HashMap<String, Future<?>> _latest;
+    /** Maps the names of tables to the message of the first error from a
+     *  failed store of each not yet reported, in order of failure. */
+    private final LinkedHashMap<String, String> _failures;
+}
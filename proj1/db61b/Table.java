@@ -1,13 +1,20 @@
 package db61b;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.FileOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
-import java.util.ArrayList;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static db61b.Utils.*;
 
@@ -21,13 +28,42 @@ class Table implements Iterable<Row> {
      * be distinct (else exception thrown).
      */
     Table(String name, String[] columnTitles) {
+        this(name, columnTitles, strings(columnTitles.length));
+    }
+
+    /**
+     * A new Table named NAME whose columns are given by COLUMNTITLES, which
+     * must be distinct, and have types TYPES.
+     */
+    Table(String name, String[] columnTitles, ColumnType[] types) {
+        this(name, columnTitles, Storage.make(STORAGE_MODE, types));
+    }
+
+    /**
+     * A new Table named NAME whose columns are given by COLUMNTITLES, which
+     * must be distinct, and whose rows are those already in STORAGE, which
+     * must be distinct.
+     */
+    Table(String name, String[] columnTitles, Storage storage) {
         _name = name;
         _titles = columnTitles;
-        _arrRow = new ArrayList<Row>();
-        for (int i = 0; i < _titles.length; i++) {
-            if (i != _titles.length - 1) {
-                for (int j = i + 1; j < _titles.length; j++) {
-                    if (_titles[i].equals(_titles[j])) {
+        _storage = storage;
+        _hashes = new int[INITIAL_SLOTS];
+        _slots = new int[INITIAL_SLOTS];
+        _indexes = new CopyOnWriteArrayList<Index>();
+        _baseRows = storage.size();
+        _committed = _baseRows;
+        _versions = new long[INITIAL_SLOTS];
+        checkTitles(_titles);
+    }
+
+    /** Throw a DBException unless the column titles TITLES are
+     *  distinct. */
+    static void checkTitles(String[] titles) {
+        for (int i = 0; i < titles.length; i++) {
+            if (i != titles.length - 1) {
+                for (int j = i + 1; j < titles.length; j++) {
+                    if (titles[i].equals(titles[j])) {
                         throw error("Cannot have duplicate column names");
                     }
                 }
@@ -40,12 +76,45 @@ class Table implements Iterable<Row> {
         this(name, columnTitles.toArray(new String[columnTitles.size()]));
     }
 
+    /** Return N STRING column types. */
+    static ColumnType[] strings(int n) {
+        ColumnType[] types = new ColumnType[n];
+        Arrays.fill(types, ColumnType.STRING);
+        return types;
+    }
+
+    /** Return a new, empty Table named NAME whose columns are described by
+     *  HEADER, the first line of a .db file: a comma-separated list of
+     *  column titles, each optionally followed by a colon and a type name
+     *  (as in "SID:int"). */
+    static Table fromHeader(String name, String header) {
+        String[] titles = header.split(",");
+        ColumnType[] types = strings(titles.length);
+        for (int c = 0; c < titles.length; c++) {
+            int colon = titles[c].indexOf(':');
+            if (colon >= 0) {
+                types[c] = ColumnType.named(titles[c].substring(colon + 1));
+                if (types[c] == null) {
+                    throw error("unknown column type in DB file: %s",
+                                titles[c].substring(colon + 1));
+                }
+                titles[c] = titles[c].substring(0, colon);
+            }
+        }
+        return new Table(name, titles, types);
+    }
+
     /** Return the number of columns in this table. */
     int numColumns() {
         /** IW */
         return _titles.length;
     }
 
+    /** Return the type of my Kth column. */
+    ColumnType type(int k) {
+        return _storage.type(k);
+    }
+
     /** Returns my name. */
     String name() {
         return _name;
@@ -59,7 +128,7 @@ class Table implements Iterable<Row> {
     /** Returns an iterator that returns my rows in an unspecified order. */
     @Override
     public Iterator<Row> iterator() {
-        return _arrRow.iterator();
+        return getRows().iterator();
     }
 
     /** Return the title of the Kth column. Requires 0 <= K < columns(). */
@@ -84,44 +153,258 @@ class Table implements Iterable<Row> {
 
     /** Return the number of Rows in this table. */
     int size() {
-        return _arrRow.size();
+        return _committed;
+    }
+
+    /** Return the number of the latest snapshot of all Tables: the
+     *  version of the last row added to any of them (see size(long)). */
+    static long snapshot() {
+        return _lastVersion;
+    }
+
+    /** Return the number of my Rows in the snapshot numbered SNAPSHOT:
+     *  those whose versions are at most SNAPSHOT.  Since versions increase
+     *  with row numbers, these are my first rows.  Rows are never changed
+     *  or removed once added, so they remain in later snapshots.  Reading
+     *  these rows needs no lock, even while other threads add rows. */
+    int size(long snapshot) {
+        int lo = _baseRows, hi = _committed;
+        long[] versions = _versions;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (versions[mid - _baseRows] <= snapshot) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Return the value of column #COL in row #ROW.  Requires that
+     *  0 <= ROW < size() and 0 <= COL < numColumns(). */
+    String get(int row, int col) {
+        return _storage.get(row, col);
+    }
+
+    /** Return the value of column #COL, which must be an INT or DATE, in
+     *  row #ROW, as a long (see ColumnType.toLong). */
+    long getLong(int row, int col) {
+        return _storage.getLong(row, col);
+    }
+
+    /** Return the value of column #COL, which must be numeric, in row
+     *  #ROW, as a double. */
+    double getDouble(int row, int col) {
+        return _storage.getDouble(row, col);
+    }
+
+    /** Return true iff my rows are kept in pages that are not all in
+     *  memory (see pin). */
+    boolean isPaged() {
+        return _storage instanceof PagedStorage;
+    }
+
+    /** Return the Page holding my row #K, pinned so that it stays in
+     *  memory until passed to unpin, or null if I keep all my rows in
+     *  memory anyway. */
+    Page pin(int k) {
+        return _storage.pin(k);
+    }
+
+    /** Release PAGE, returned by pin. */
+    void unpin(Page page) {
+        _storage.unpin(page);
     }
 
     /**
      * Add ROW to THIS if no equal row already exists. Return true if anything
-     * was added, false otherwise.
+     * was added, false otherwise.  Values in typed columns are put in
+     * canonical form first; a DBException is thrown if one is not a valid
+     * value of its column's type.  The new row gets the next version, and
+     * appears in snapshots taken after it is added.  Adds to the same
+     * Table are serialized.
      */
-    boolean add(Row row) {
-        for (int i = 0; i < _arrRow.size(); i++) {
-            if (row.equals(_arrRow.get(i))) {
+    synchronized boolean add(Row row) {
+        row = canonical(row);
+        if (_numHashed < _storage.size()) {
+            hashRows();
+        }
+        int hash = row.hashCode();
+        int mask = _slots.length - 1;
+        int i = spread(hash) & mask;
+        while (_slots[i] != 0) {
+            int k = _slots[i] - 1;
+            if (_hashes[k] == hash && _storage.rowEquals(k, row)) {
                 return false;
             }
+            i = (i + 1) & mask;
+        }
+        int k = _storage.size();
+        if (k == _hashes.length) {
+            _hashes = Arrays.copyOf(_hashes, 2 * k);
         }
-        _arrRow.add(row);
+        _hashes[k] = hash;
+        _storage.add(row);
+        _slots[i] = k + 1;
+        _numHashed = k + 1;
+        for (Index index : _indexes) {
+            index.add(row, k);
+        }
+        if (4 * _numHashed > 3 * _slots.length) {
+            rehash(2 * _slots.length);
+        }
+        commit(k);
         return true;
     }
 
+    /** Give my row #K, my last, the next version, and make it visible to
+     *  snapshots taken from now on. */
+    private void commit(int k) {
+        synchronized (COMMIT_LOCK) {
+            long version = _lastVersion + 1;
+            int i = k - _baseRows;
+            long[] versions = _versions;
+            if (i == versions.length) {
+                versions = Arrays.copyOf(versions, 2 * i);
+            }
+            versions[i] = version;
+            _versions = versions;
+            _committed = k + 1;
+            _lastVersion = version;
+        }
+    }
+
+    /** Return ROW with the values of my typed columns in canonical
+     *  form. */
+    private Row canonical(Row row) {
+        String[] data = null;
+        for (int c = 0; c < row.size(); c++) {
+            ColumnType type = _storage.type(c);
+            if (type != ColumnType.STRING) {
+                String value = type.canonical(row.get(c));
+                if (!value.equals(row.get(c))) {
+                    if (data == null) {
+                        data = new String[row.size()];
+                        for (int i = 0; i < data.length; i++) {
+                            data[i] = row.get(i);
+                        }
+                    }
+                    data[c] = value;
+                }
+            }
+        }
+        return data == null ? row : new Row(data);
+    }
+
+    /** Enter the rows that came with my Storage into _slots.  Deferred to
+     *  the first add, so that tables that are only read never pay for
+     *  it. */
+    private void hashRows() {
+        int n = _storage.size();
+        _hashes = Arrays.copyOf(_hashes, Math.max(n, INITIAL_SLOTS));
+        for (int k = _numHashed; k < n; k++) {
+            _hashes[k] = _storage.row(k).hashCode();
+        }
+        _numHashed = n;
+        int numSlots = _slots.length;
+        while (4 * n > 3 * numSlots) {
+            numSlots *= 2;
+        }
+        rehash(numSlots);
+    }
+
+    /** Create an Index on my column named COLUMN, if there is not one
+     *  already, and fill it from my current rows. */
+    synchronized void createIndex(String column) {
+        int c = columnIndex(column);
+        if (c == -1) {
+            throw error("%s is not a column in %s", column, _name);
+        }
+        if (index(c) != null) {
+            return;
+        }
+        Index index = new Index(c, type(c));
+        for (int k = 0; k < _storage.size(); k++) {
+            index.add(_storage.row(k), k);
+        }
+        _indexes.add(index);
+    }
+
+    /** Return my Index on column #C, or null if there is none. */
+    Index index(int c) {
+        for (Index index : _indexes) {
+            if (index.column() == c) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    /** Rebuild _slots with NUMSLOTS entries (a power of two) from the
+     *  cached hash codes of my rows. */
+    private void rehash(int numSlots) {
+        _slots = new int[numSlots];
+        int mask = numSlots - 1;
+        for (int k = 0; k < _numHashed; k++) {
+            int i = spread(_hashes[k]) & mask;
+            while (_slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            _slots[i] = k + 1;
+        }
+    }
+
+    /** Return HASH with its high bits folded into its low bits, so that
+     *  masking it to a slot number uses all of it. */
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
     /**
      * Read the contents of the file NAME.db, and return as a Table. Format
      * errors in the .db file cause a DBException.
      */
     static Table readTable(String name) {
+        File file = new File(name + ".db");
+        Table table;
+        if (file.length() >= TableLoader.PARALLEL_THRESHOLD) {
+            table = TableLoader.load(name, file);
+        } else {
+            table = readRows(name, file);
+        }
+        table.noteStored(file, table.size());
+        return table;
+    }
+
+    /** Return a reader of the text in FILE, which is encoded in UTF-8, as
+     *  are all files that db61b reads and writes (see TableLoader and
+     *  BinaryTable). */
+    private static BufferedReader reader(File file)
+        throws FileNotFoundException {
+        return new BufferedReader(
+            new InputStreamReader(new FileInputStream(file),
+                                  StandardCharsets.UTF_8));
+    }
+
+    /** Return the Table named NAME read sequentially from FILE, in the
+     *  format described for readTable. */
+    private static Table readRows(String name, File file) {
         BufferedReader input;
         Table table;
         input = null;
         table = null;
         String thisLine = null;
         try {
-            input = new BufferedReader(new FileReader(name + ".db"));
+            input = reader(file);
             String header = input.readLine();
             if (header == null) {
                 throw error("missing header in DB file");
             }
-            String[] columnNames = header.split(",");
-            table = new Table(name, columnNames);
+            table = fromHeader(name, header);
             while ((thisLine = input.readLine()) != null) {
                 String[] row = thisLine.split(",");
-                if (row.length == columnNames.length) {
+                if (row.length == table.numColumns()) {
                     table.add(new Row(row));
                 } else {
                     throw error("Number of columns per row do not match.");
@@ -143,71 +426,292 @@ class Table implements Iterable<Row> {
         return table;
     }
 
+    /** Return the header line of the .db file for me: my column titles,
+     *  each followed by a colon and its type if it is typed, separated by
+     *  commas (see fromHeader). */
+    String header() {
+        StringBuilder header = new StringBuilder();
+        for (int i = 0; i < _titles.length; i++) {
+            header.append(_titles[i]);
+            if (type(i) != ColumnType.STRING) {
+                header.append(':').append(type(i));
+            }
+            if (i != _titles.length - 1) {
+                header.append(',');
+            }
+        }
+        return header.toString();
+    }
+
     /**
      * Write the contents of TABLE into the file NAME.db. Any I/O errors cause a
-     * DBException.
+     * DBException.  The file is forced to disk before returning.  If NAME.db
+     * is unchanged since I last read or wrote it, only the rows added since
+     * then are appended to it; otherwise it is rewritten entirely, under a
+     * temporary name that then replaces NAME.db, so that a crash leaves
+     * either the old or the new file.
      */
     void writeTable(String name) {
-        PrintStream output;
-        output = null;
+        writeTable(name, size());
+    }
+
+    /** Write my first NUMROWS rows into the file NAME.db, as for
+     *  writeTable(NAME).  Other threads may add rows to me meanwhile. */
+    void writeTable(String name, int numRows) {
+        File file = new File(name + ".db");
         try {
-            output = new PrintStream(name + ".db");
-            for (int i = 0; i < _titles.length; i++) {
-                if (i != _titles.length - 1) {
-                    output.print(_titles[i] + ",");
-                } else {
-                    output.print(_titles[i]);
-                }
+            if (isStoredIn(file, numRows)) {
+                boolean newline = !endsWithNewline(file);
+                writeRows(file, true, newline, _storedRows, numRows);
+            } else {
+                File temp = new File(name + ".db.tmp");
+                writeRows(temp, false, true, 0, numRows);
+                BinaryTable.replace(temp, file);
             }
-            output.println("");
-            for (int i = 0; i < _arrRow.size(); i++) {
+        } catch (IOException e) {
+            throw error("trouble writing to %s.db", name);
+        }
+        BinaryTable.markNewer(file, BinaryTable.file(name));
+        noteStored(file, numRows);
+    }
+
+    /** Write my rows #FIRST .. LAST-1 to FILE, appending to it if APPEND,
+     *  and otherwise replacing its contents, and force it to disk.  Start
+     *  with a newline if NEWLINE is true and APPEND is true, and with my
+     *  header if APPEND is false. */
+    private void writeRows(File file, boolean append, boolean newline,
+                           int first, int last) throws IOException {
+        try (FileOutputStream stream = new FileOutputStream(file, append);
+             PrintStream output =
+                 new PrintStream(new BufferedOutputStream(stream), false,
+                                 StandardCharsets.UTF_8)) {
+            if (!append) {
+                output.println(header());
+            } else if (newline) {
+                output.println("");
+            }
+            String[][] block = new String[_titles.length][];
+            for (int start = first; start < last; start += WRITE_BLOCK) {
+                int end = Math.min(last, start + WRITE_BLOCK);
                 for (int j = 0; j < _titles.length; j++) {
-                    if (j != _titles.length - 1) {
-                        output.print(_arrRow.get(i).get(j) + ",");
-                    } else {
-                        output.print(_arrRow.get(i).get(j));
+                    block[j] = values(j, start, end);
+                }
+                for (int i = 0; i < end - start; i++) {
+                    for (int j = 0; j < _titles.length; j++) {
+                        if (j != _titles.length - 1) {
+                            output.print(block[j][i] + ",");
+                        } else {
+                            output.print(block[j][i]);
+                        }
                     }
+                    output.println("");
                 }
-                output.println("");
             }
-        } catch (IOException e) {
-            throw error("trouble writing to %s.db", name);
-        } finally {
-            if (output != null) {
-                output.close();
+            output.flush();
+            if (output.checkError()) {
+                throw new IOException();
             }
+            stream.getFD().sync();
         }
     }
 
+    /** Return the values in column #COL of my rows #FROM .. TO-1, where
+     *  TO <= size(). */
+    String[] values(int col, int from, int to) {
+        String[] result = new String[to - from];
+        for (int k = from; k < to; k++) {
+            result[k - from] = _storage.get(k, col);
+        }
+        return result;
+    }
+
+    /** Record that FILE, as it now is, holds my first ROWS rows. */
+    private synchronized void noteStored(File file, int rows) {
+        _storedFile = file;
+        _storedRows = rows;
+        _storedLength = file.length();
+        _storedModified = file.lastModified();
+    }
+
+    /** Return true iff FILE is the file in which I last noted (see
+     *  noteStored) my rows, it appears unchanged since, and it holds no
+     *  more than my first NUMROWS rows. */
+    private synchronized boolean isStoredIn(File file, int numRows) {
+        return file.equals(_storedFile) && _storedRows <= numRows
+            && file.length() == _storedLength
+            && file.lastModified() == _storedModified;
+    }
+
+    /** Return true iff FILE is empty or its last byte is a newline. */
+    private static boolean endsWithNewline(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            if (in.length() == 0) {
+                return true;
+            }
+            in.seek(in.length() - 1);
+            return in.read() == '\n';
+        }
+    }
+
+    /** Return a Table that stands for the table NAME stored in NAME.dbb, if
+     *  BINARY, and otherwise in NAME.db, whose rows are not read until
+     *  they are first needed (see contents).  Only the file's header is
+     *  read now, so that a missing file or bad header is reported at once;
+     *  errors in the rows are reported when they are read. */
+    static Table lazy(String name, boolean binary) {
+        Table table;
+        if (binary) {
+            table = BinaryTable.readHeader(name);
+        } else {
+            try (BufferedReader input =
+                     reader(new File(name + ".db"))) {
+                String header = input.readLine();
+                if (header == null) {
+                    throw error("missing header in DB file");
+                }
+                table = fromHeader(name, header);
+            } catch (FileNotFoundException e) {
+                throw error("could not find %s.db", name);
+            } catch (IOException e) {
+                throw error("problem reading from %s.db", name);
+            }
+        }
+        table._lazyBinary = binary;
+        table._lazy = true;
+        table._statistics = Statistics.read(name, table);
+        return table;
+    }
+
+    /** Return the Table I stand for: myself, unless I was created by lazy,
+     *  in which case the Table read from my file when this is first
+     *  called. */
+    Table contents() {
+        if (!_lazy) {
+            return this;
+        }
+        synchronized (this) {
+            if (_contents == null) {
+                _contents = _lazyBinary ? BinaryTable.read(_name)
+                    : readTable(_name);
+                _contents._statistics = _statistics;
+            }
+            return _contents;
+        }
+    }
+
+    /** Return the Table named NAME read from its stored form: NAME.dbb if
+     *  that is newer than NAME.db (see BinaryTable.isNewer), and otherwise
+     *  NAME.db, together with any statistics stored with it. */
+    static Table load(String name) {
+        Table table;
+        if (BinaryTable.isNewer(name)) {
+            table = BinaryTable.read(name);
+        } else {
+            table = readTable(name);
+        }
+        table._statistics = Statistics.read(name, table);
+        return table;
+    }
+
+    /** Return the statistics of my rows last computed by analyze, or
+     *  stored with me, or null if there are none. */
+    Statistics statistics() {
+        return _statistics;
+    }
+
+    /** Make STATISTICS my statistics. */
+    void setStatistics(Statistics statistics) {
+        _statistics = statistics;
+    }
+
     /**
      * Print my contents on the standard output, separated by spaces and
      * indented by two spaces.
      */
     void print() {
-        for (int i = 0; i < _arrRow.size(); i++) {
-            System.out.print("  ");
-            for (int j = 0; j < _titles.length; j++) {
-                System.out.print(_arrRow.get(i).get(j));
-                if (j < _titles.length - 1) {
-                    System.out.print(" ");
-                }
+        print(System.out);
+    }
+
+    /** Print my contents on OUTPUT, as for print(). */
+    void print(PrintStream output) {
+        ResultWriter out = ResultWriter.output(output);
+        int n = size();
+        try {
+            for (int i = 0; i < n; i++) {
+                out.writeRow(this, i);
             }
-            System.out.println("");
+        } finally {
+            out.flush();
         }
     }
 
     /**
-     * Gets the arraylist of rows of the table.
-     * @return arraylist of rows
+     * Gets a read-only list of the rows of the table.
+     * @return list of rows
      */
-    ArrayList<Row> getRows() {
-        return _arrRow;
+    List<Row> getRows() {
+        return _storage.rows();
     }
 
     /** My name. */
     private final String _name;
     /** My column titles. */
     private String[] _titles;
-    /** List of rows. */
-    private ArrayList<Row> _arrRow;
+    /** My rows. */
+    private Storage _storage;
+
+    /** How new Tables lay out their rows: "rows" (the default) keeps a
+     *  Row object per row, "columnar" keeps a dictionary-encoded array
+     *  per column, and "paged" keeps pages of rows in a file, caching
+     *  some in the BufferPool.  Set with the system property
+     *  db61b.storage. */
+    static final String STORAGE_MODE =
+        System.getProperty("db61b.storage", "rows");
+
+    /** Number of rows copied from my Storage at a time by writeTable. */
+    private static final int WRITE_BLOCK = 1 << 12;
+
+    /** Initial (power-of-two) length of _slots and _hashes. */
+    private static final int INITIAL_SLOTS = 16;
+    /** Open-addressing hash table of my rows, used to reject duplicates
+     *  in add.  Each entry is 0 (empty) or 1 + the number of one of
+     *  my rows, and is probed linearly from the row's hash code.  Kept at
+     *  most 3/4 full. */
+    private int[] _slots;
+    /** _hashes[k] caches the hashCode of row #k. */
+    private int[] _hashes;
+    /** Number of my rows (all but possibly some that came with my Storage)
+     *  that have been entered into _slots and _hashes. */
+    private int _numHashed;
+    /** Secondary indexes on my columns, kept current by add. */
+    private CopyOnWriteArrayList<Index> _indexes;
+    /** True iff I was created by lazy, and stand for the Table in a
+     *  file. */
+    private boolean _lazy;
+    /** True iff that file is a .dbb file. */
+    private boolean _lazyBinary;
+    /** The Table read from that file, once it has been read. */
+    private Table _contents;
+    /** My statistics (see statistics()). */
+    private volatile Statistics _statistics;
+    /** Number of rows that came with my Storage, whose version is 0. */
+    private final int _baseRows;
+    /** Number of my rows that have been committed (see commit). */
+    private volatile int _committed;
+    /** _versions[k - _baseRows] is the version of my row #k, for
+     *  _baseRows <= k < _committed. */
+    private volatile long[] _versions;
+
+    /** The version of the last row added to any Table. */
+    private static volatile long _lastVersion;
+    /** Held while giving a row its version, so that versions are
+     *  committed in increasing order. */
+    private static final Object COMMIT_LOCK = new Object();
+    /** The .db file that I was last read from or written to, or null. */
+    private File _storedFile;
+    /** Number of my rows, my first, that _storedFile holds. */
+    private int _storedRows;
+    /** Length and modification time of _storedFile when last read or
+     *  written, used to detect changes made to it since. */
+    private long _storedLength, _storedModified;
 }
@@ -4,21 +4,37 @@ package db61b;
  * An iterator through the rows of a Table. Rather than providing the usual Java
  * Iterator interface, a TableIterator acts more like a C++ STL iterator: at any
  * given time, there is a notion of the current Row and a separate method to
- * proceed to the next.
+ * proceed to the next.  A TableIterator sees only the rows of its Table in
+ * one snapshot (see Table.size(long)), which other threads' additions to
+ * the Table do not disturb.
  * @author JuKyung Choi
  */
 class TableIterator {
 
-    /** An STL-style iterator through the rows of TABLE. */
+    /** An STL-style iterator through the rows of TABLE, in the latest
+     *  snapshot. */
     TableIterator(Table table) {
         _table = table;
+        _paged = table.isPaged();
+        open(Table.snapshot());
+    }
+
+    /** Make the rows I see those of my Table in the snapshot numbered
+     *  SNAPSHOT, and reinitialize me to the first row. */
+    void open(long snapshot) {
+        close();
+        _size = _table.size(snapshot);
         reset();
     }
 
+    /** Return the number of rows I see. */
+    int size() {
+        return _size;
+    }
+
     /** Reinitialize me to the first row. */
     void reset() {
         _count = 0;
-        _row = this._table.getRows().get(_count);
     }
 
     /** Return the Table over which I am iterating. */
@@ -31,7 +47,7 @@ class TableIterator {
      * the iterator).
      */
     boolean hasRow() {
-        return _row != null;
+        return _count < _size;
     }
 
     /**
@@ -39,15 +55,25 @@ class TableIterator {
      * value of hasRow().
      */
     Row next() {
-        _count += 1;
-        if (_count < _table.getRows().size()) {
-            _row = this._table.getRows().get(_count);
-            return _row;
+        if (_count + 1 < _size) {
+            _count += 1;
+            return _table.getRows().get(_count);
         } else {
             throw new IndexOutOfBoundsException();
         }
     }
 
+    /** Return the number of the current row of my Table. */
+    int rowNumber() {
+        return _count;
+    }
+
+    /** Make row #K of my Table the current row.  Requires that
+     *  0 <= K < size(). */
+    void setRow(int k) {
+        _count = k;
+    }
+
     /**
      * Return the index of column NAME in my Table, or -1 if there is no such
      * column.
@@ -61,14 +87,59 @@ class TableIterator {
         if (!hasRow()) {
             throw new IllegalStateException("Past the last row.");
         }
-        return _row.get(k);
+        if (_paged) {
+            return page().row(_count).get(k);
+        }
+        return _table.get(_count, k);
+    }
+
+    /** Return the value of column #K, which must be an INT or DATE, in the
+     *  current row, as a long. */
+    long longValue(int k) {
+        if (_paged) {
+            return _table.type(k).toLong(value(k));
+        }
+        return _table.getLong(_count, k);
+    }
+
+    /** Return the value of column #K, which must be numeric, in the
+     *  current row, as a double. */
+    double doubleValue(int k) {
+        if (_paged) {
+            return _table.type(k).toDouble(value(k));
+        }
+        return _table.getDouble(_count, k);
+    }
+
+    /** Release the page holding my current row, if I have pinned one (see
+     *  Table.pin).  I pin it again if used again. */
+    void close() {
+        if (_page != null) {
+            _table.unpin(_page);
+            _page = null;
+        }
+    }
+
+    /** Return the page holding my current row, pinning it, and unpinning
+     *  the page of the previous row, if it is a different one. */
+    private Page page() {
+        if (_page == null || !_page.holds(_count)) {
+            close();
+            _page = _table.pin(_count);
+        }
+        return _page;
     }
 
     /** My table. */
     private final Table _table;
-    /** The current Row of my Table, or null if there are no more. */
-    private Row _row;
-    /** COUNT of row calls. */
+    /** Number of the current row of my Table; there is no current row if
+     *  it is not less than _size. */
     private int _count;
+    /** Number of rows of my Table that I see. */
+    private int _size;
+    /** True iff my Table's rows are paged, and are read through _page. */
+    private final boolean _paged;
+    /** The pinned page of my Table holding a recent row, or null. */
+    private Page _page;
 
 }
@@ -0,0 +1,207 @@
+package db61b;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static db61b.Utils.*;
+
+/** Reads large .db files in parallel.  The file is memory-mapped in
+ *  chunks that each end at the end of a line, the chunks are parsed into
+ *  Rows concurrently on the common ForkJoinPool, a few at a time, and the
+ *  Rows are then added to the Table in file order, so the result is the
+ *  same as that of Table.readTable's sequential reader.
+ *  @author JuKyung Choi
+ */
+class TableLoader {
+
+    /** Files of at least this many bytes are read in parallel.  Set with
+     *  the system property db61b.parallelLoadBytes. */
+    static final long PARALLEL_THRESHOLD =
+        Long.getLong("db61b.parallelLoadBytes", 1 << 22);
+
+    /** Approximate number of bytes in each chunk. */
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    /** Largest number of chunks parsed but not yet added to the table,
+     *  which bounds the memory used by their rows (see
+     *  PagedStorage). */
+    private static final int MAX_PENDING =
+        ForkJoinPool.getCommonPoolParallelism() + 1;
+
+    /** Size of the buffer used to search for ends of lines. */
+    private static final int SCAN_SIZE = 1 << 12;
+
+    /** Return the Table named NAME read from FILE, in the format of
+     *  Table.writeTable.  Format errors cause a DBException. */
+    static Table load(String name, File file) {
+        return load(name, file, CHUNK_SIZE);
+    }
+
+    /** Return the Table named NAME read from FILE, as for load(NAME,
+     *  FILE), in chunks of about CHUNKSIZE bytes. */
+    static Table load(String name, File file, int chunkSize) {
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                                               StandardOpenOption.READ)) {
+            long size = in.size();
+            if (size == 0) {
+                throw error("missing header in DB file");
+            }
+            long bodyStart = endOfLine(in, 0, size);
+            String header = decode(in, 0, bodyStart).toString();
+            Table table = Table.fromHeader(name, stripEnd(header));
+
+            ArrayDeque<ForkJoinTask<Chunk>> chunks = new ArrayDeque<>();
+            for (long start = bodyStart; start < size; ) {
+                long end = endOfLine(in, Math.min(start + chunkSize, size),
+                                     size);
+                Chunk chunk = new Chunk(in, start, end,
+                                        table.numColumns());
+                chunks.add(ForkJoinPool.commonPool().submit(chunk));
+                start = end;
+                if (chunks.size() > MAX_PENDING) {
+                    addRows(table, chunks.remove().join());
+                }
+            }
+            while (!chunks.isEmpty()) {
+                addRows(table, chunks.remove().join());
+            }
+            return table;
+        } catch (IOException e) {
+            throw error("problem reading from %s.db", name);
+        }
+    }
+
+    /** Add the rows of CHUNK, which has been parsed, to TABLE. */
+    private static void addRows(Table table, Chunk chunk) {
+        if (chunk._error != null) {
+            throw error(chunk._error);
+        }
+        for (Row row : chunk._rows) {
+            table.add(row);
+        }
+    }
+
+    /** Return the position just past the first end of line ("\n", "\r",
+     *  or "\r\n") in IN at or after POS, or SIZE, IN's size, if there is
+     *  none. */
+    private static long endOfLine(FileChannel in, long pos, long size)
+        throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(SCAN_SIZE);
+        while (pos < size) {
+            buf.clear();
+            int n = in.read(buf, pos);
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') {
+                    return pos + i + 1;
+                } else if (buf.get(i) == '\r') {
+                    long end = pos + i + 1;
+                    if (end < size && byteAt(in, end) == '\n') {
+                        end += 1;
+                    }
+                    return end;
+                }
+            }
+            pos += n;
+        }
+        return size;
+    }
+
+    /** Return the byte at position POS of IN, which must exist. */
+    private static byte byteAt(FileChannel in, long pos) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(1);
+        while (buf.hasRemaining()) {
+            in.read(buf, pos);
+        }
+        return buf.get(0);
+    }
+
+    /** Return the text in bytes START .. END-1 of IN, mapped into memory
+     *  and decoded as UTF-8. */
+    private static CharBuffer decode(FileChannel in, long start, long end)
+        throws IOException {
+        MappedByteBuffer bytes =
+            in.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        return StandardCharsets.UTF_8.decode(bytes);
+    }
+
+    /** Return LINE without any trailing end-of-line characters. */
+    private static String stripEnd(String line) {
+        int end = line.length();
+        while (end > 0 && (line.charAt(end - 1) == '\n'
+                           || line.charAt(end - 1) == '\r')) {
+            end -= 1;
+        }
+        return line.substring(0, end);
+    }
+
+    /** A task that parses the lines of one chunk of a .db file. */
+    private static class Chunk implements Callable<Chunk> {
+
+        /** A task parsing the rows in bytes START .. END-1 of IN, each
+         *  of which should have NUMCOLUMNS values.  START and END must be
+         *  at beginnings of lines. */
+        Chunk(FileChannel in, long start, long end, int numColumns) {
+            _in = in;
+            _start = start;
+            _end = end;
+            _numColumns = numColumns;
+            _rows = new ArrayList<>();
+        }
+
+        @Override
+        public Chunk call() throws IOException {
+            CharBuffer text = decode(_in, _start, _end);
+            int n = text.length();
+            for (int i = 0; i < n; ) {
+                int j = i;
+                while (j < n && text.get(j) != '\n' && text.get(j) != '\r') {
+                    j += 1;
+                }
+                Row row = parse(text.subSequence(i, j).toString());
+                if (row == null) {
+                    _error = "Number of columns per row do not match.";
+                    break;
+                }
+                /* Computes (and caches) the hash codes of the values here,
+                 * in parallel, rather than in Table.add. */
+                row.hashCode();
+                _rows.add(row);
+                if (j + 1 < n && text.get(j) == '\r'
+                    && text.get(j + 1) == '\n') {
+                    j += 1;
+                }
+                i = j + 1;
+            }
+            return this;
+        }
+
+        /** Return the Row whose values are given by LINE, or null if LINE
+         *  does not have the right number of values. */
+        private Row parse(String line) {
+            String[] row = line.split(",");
+            return row.length == _numColumns ? new Row(row) : null;
+        }
+
+        /** Source of input. */
+        private final FileChannel _in;
+        /** Bounds of my bytes in _in. */
+        private final long _start, _end;
+        /** Number of values expected in each row. */
+        private final int _numColumns;
+        /** The rows parsed so far. */
+        private final ArrayList<Row> _rows;
+        /** Message describing the first format error found, or null. */
+        private String _error;
+    }
+}
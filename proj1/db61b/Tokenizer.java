@@ -1,35 +1,41 @@
 package db61b;
 
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.Reader;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.Arrays;
 
 import static db61b.Utils.*;
 
-/** Represents a stream of db61b tokens read from a given Scanner.
+/** Represents a stream of db61b tokens read from a given Reader.  The
+ *  tokens are recognized by hand, a character at a time, from a buffer
+ *  of the input.  At each point, the first of the following that
+ *  applies gives the next token:
+ *  <ul>
+ *  <li> a relation symbol: =, &lt;=, &gt;=, or !=;
+ *  <li> a column or identifier: one or more letters, digits, underscores,
+ *       or vertical bars, followed by any dots and then any letters,
+ *       digits, and underscores, and then possibly a single comma;
+ *  <li> a literal: a quote followed by any characters other than quotes,
+ *       commas, and ends of lines, and then a quote, if there is one;
+ *  <li> a comment: from slash-star through the next star-slash, or
+ *       through the end of the input if there is none;
+ *  <li> an end of line (newline, or return-newline);
+ *  <li> any other single character but white space.
+ *  </ul>
+ *  White space between tokens is skipped.
  *  @author P. N. Hilfinger. */
 class Tokenizer {
 
-    /** Text of regular expressions that represent literals (possibly
-     *  unterminated), identifiers, and comments (possibly
-     *  unterminated). */
+    /** Text of regular expressions that represent identifiers and
+     *  column designators. */
     private static final String
-        LITERAL_TEXT = "'(?:[^,'\n\r]*)'?",
         IDENTIFIER_TEXT = "[\\p{Alpha}_]+\\w*,{0,1}",
-        COMMENT_TEXT = "(?:/\\*.*?\\*/|/\\*.*)",
         COLUMN_TEXT = "[\\d|\\p{Alpha}_]+\\.*\\w*\\d*,{0,1}",
         LETORNUM_TEXT = "[\\d|\\p{Alpha}_]+\\.*\\w*,*";
-    /** Matches potential tokens, including valid or unterminated
-     *  literals, valid or unterminated comments, identifiers,
-     *  relation symbols (=, <, <=, >=, and !=), end-of-line
-     *  sequences, or other single characters.  The pattern matches a
-     *  prefix of any string. */
-    private static final Pattern
-        TOKEN_PATN = mkPatn("(?s)[<>!]?=|%s|%s|%s|%s|%s|\r?\n|\\S",
-                COLUMN_TEXT, LITERAL_TEXT, IDENTIFIER_TEXT, COMMENT_TEXT,
-                LETORNUM_TEXT);
 
     /** Patterns matching specific kinds of token.  These are intended
      *  to be used with methods such as CommandInterpreter.name. */
@@ -40,10 +46,14 @@ class Tokenizer {
         COLUMN = mkPatn(COLUMN_TEXT),
         LETORNUM = mkPatn(LETORNUM_TEXT);
 
-    /** A Tokenizer that reads tokens from S, and prompts on PROMPTER,
+    /** Initial size of the input buffer. */
+    private static final int BUFFER_SIZE = 1 << 13;
+
+    /** A Tokenizer that reads tokens from INPUT, and prompts on PROMPTER,
      *  if it is non-null. */
-    Tokenizer(Scanner s, PrintStream prompter) {
-        _input = s;
+    Tokenizer(Reader input, PrintStream prompter) {
+        _input = input;
+        _chars = new char[BUFFER_SIZE];
         _buffer = new ArrayList<>();
         _prompter = prompter;
         _continued = false;
@@ -59,7 +69,7 @@ class Tokenizer {
     private void readToken() {
         while (true) {
             prompt();
-            String token = _input.findWithinHorizon(TOKEN_PATN, 0);
+            String token = scan();
             if (token == null) {
                 token = "*EOF*";
             } else if (token.startsWith("'")) {
@@ -81,6 +91,140 @@ class Tokenizer {
         }
     }
 
+    /** Read and return the next potential token (see the class comment),
+     *  or null if there are none left. */
+    private String scan() {
+        while (true) {
+            int c = charAt(0);
+            switch (c) {
+            case -1:
+                return null;
+            case ' ': case '\t': case '\u000b': case '\f':
+                _pos += 1;
+                continue;
+            case '\r':
+                if (charAt(1) == '\n') {
+                    return take(2);
+                }
+                _pos += 1;
+                continue;
+            case '\n':
+            case '=':
+                return take(1);
+            case '<': case '>': case '!':
+                return take(charAt(1) == '=' ? 2 : 1);
+            case '\'':
+                int n = 1;
+                for (int d = charAt(n); d != -1 && d != ',' && d != '\''
+                         && d != '\n' && d != '\r'; d = charAt(n)) {
+                    n += 1;
+                }
+                return take(charAt(n) == '\'' ? n + 1 : n);
+            case '/':
+                if (charAt(1) == '*') {
+                    return take(commentLength());
+                }
+                return take(1);
+            default:
+                if (isColumnChar(c)) {
+                    return take(columnLength());
+                } else if (Character.isHighSurrogate((char) c)
+                           && Character.isLowSurrogate((char) charAt(1))) {
+                    return take(2);
+                }
+                return take(1);
+            }
+        }
+    }
+
+    /** Return the length of the column or identifier token that starts
+     *  the unread input. */
+    private int columnLength() {
+        int n = 1;
+        while (isColumnChar(charAt(n))) {
+            n += 1;
+        }
+        while (charAt(n) == '.') {
+            n += 1;
+        }
+        while (isWordChar(charAt(n))) {
+            n += 1;
+        }
+        return charAt(n) == ',' ? n + 1 : n;
+    }
+
+    /** Return the length of the comment token that starts the unread
+     *  input: through the next star-slash, or the rest of the input. */
+    private int commentLength() {
+        int n = 2;
+        while (true) {
+            int c = charAt(n);
+            if (c == -1) {
+                return n;
+            } else if (c == '*' && charAt(n + 1) == '/') {
+                return n + 2;
+            }
+            n += 1;
+        }
+    }
+
+    /** Return true iff C is a letter, digit, underscore, or word
+     *  character. */
+    private static boolean isWordChar(int c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z'
+            || c >= '0' && c <= '9' || c == '_';
+    }
+
+    /** Return true iff C may start a column or identifier token. */
+    private static boolean isColumnChar(int c) {
+        return isWordChar(c) || c == '|';
+    }
+
+    /** Return the character K places past the next unread one, reading
+     *  more input if needed, or -1 if the input ends before it. */
+    private int charAt(int k) {
+        while (_pos + k >= _limit) {
+            if (!fill()) {
+                return -1;
+            }
+        }
+        return _chars[_pos + k];
+    }
+
+    /** Read more of the input into _chars, after its unread part, which
+     *  is first moved to its start.  Return false if there is no more
+     *  input.  As with a Scanner, an I/O error ends the input. */
+    private boolean fill() {
+        if (_eof) {
+            return false;
+        }
+        System.arraycopy(_chars, _pos, _chars, 0, _limit - _pos);
+        _limit -= _pos;
+        _pos = 0;
+        if (_limit == _chars.length) {
+            _chars = Arrays.copyOf(_chars, 2 * _chars.length);
+        }
+        int n;
+        try {
+            n = _input.read(_chars, _limit, _chars.length - _limit);
+        } catch (IOException e) {
+            n = -1;
+        }
+        if (n < 0) {
+            _eof = true;
+            return false;
+        }
+        _limit += n;
+        return true;
+    }
+
+    /** Return the next N unread characters, and read past them. */
+    private String take(int n) {
+        String result = new String(_chars, _pos, n);
+        _pos += n;
+        return result;
+    }
+
     /** Print an appropriate prompt, if there is a prompter: either ">"
      *  when expecting the start of a new command, or "..."
      *  otherwise. */
@@ -147,9 +291,48 @@ class Tokenizer {
      *  encountering a lexical error. */
     boolean nextIs(Pattern p) {
         String token = peek();
+        if (p == COLUMN) {
+            return isColumn(token);
+        } else if (p == IDENTIFIER) {
+            return isIdentifier(token);
+        }
         return _mat.usePattern(p).reset(token).matches();
     }
 
+    /** Return true iff TOKEN matches COLUMN, checked without a Matcher. */
+    private static boolean isColumn(String token) {
+        int n = token.length(), i;
+        i = 0;
+        while (i < n && isColumnChar(token.charAt(i))) {
+            i += 1;
+        }
+        if (i == 0) {
+            return false;
+        }
+        while (i < n && token.charAt(i) == '.') {
+            i += 1;
+        }
+        while (i < n && isWordChar(token.charAt(i))) {
+            i += 1;
+        }
+        return i == n || i == n - 1 && token.charAt(i) == ',';
+    }
+
+    /** Return true iff TOKEN matches IDENTIFIER, checked without a
+     *  Matcher. */
+    private static boolean isIdentifier(String token) {
+        int n = token.length();
+        if (n == 0 || !isWordChar(token.charAt(0))
+            || Character.isDigit(token.charAt(0))) {
+            return false;
+        }
+        int i = 1;
+        while (i < n && isWordChar(token.charAt(i))) {
+            i += 1;
+        }
+        return i == n || i == n - 1 && token.charAt(i) == ',';
+    }
+
     /** Return true iff the next token equals P.  Throws DBException on
      *  encountering a lexical error. */
     boolean nextIs(String p) {
@@ -174,10 +357,41 @@ class Tokenizer {
         return _buffer.get(_k);
     }
 
+    /** Discard the tokens that have already been read, which can no longer
+     *  be returned to with rewind. */
+    void flush() {
+        _buffer.subList(0, _k).clear();
+        _k = 0;
+    }
+
+    /** Return my current position in the token stream, for use with
+     *  rewind and text. */
+    int position() {
+        return _k;
+    }
+
+    /** Return to position K, a value of position(), so that the tokens
+     *  from there on are read again. */
+    void rewind(int k) {
+        _k = k;
+    }
+
+    /** Return the tokens from position START up to position END, separated
+     *  by blanks, so that they may be read again by another Tokenizer. */
+    String text(int start, int end) {
+        return String.join(" ", _buffer.subList(start, end));
+    }
+
     /** Matcher used for pattern matching. */
     private Matcher _mat;
     /** The character input source. */
-    private Scanner _input;
+    private Reader _input;
+    /** Input read but not yet tokenized, in _chars[_pos .. _limit-1]. */
+    private char[] _chars;
+    /** Bounds of the unread input in _chars. */
+    private int _pos, _limit;
+    /** True iff _input has been exhausted. */
+    private boolean _eof;
     /** All tokens read since the last flush or beginning of input. */
     private ArrayList<String> _buffer;
     /** Output for prompts. Null if prompts not used. */
@@ -0,0 +1,425 @@
+package db61b;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static db61b.Utils.*;
+
+/** An append-only log of the changes made to tables since they were
+ *  last stored, from which those changes can be recovered after a
+ *  crash.  Each record is one line:
+ *  <pre>
+ *    CHECKSUM create TABLE HEADER      (TABLE is now empty, with the
+ *                                       columns given by the .db file
+ *                                       header HEADER)
+ *    CHECKSUM insert TABLE V1,V2,...   (a row was added to TABLE)
+ *    CHECKSUM store TABLE              (TABLE was written to its file)
+ *    CHECKSUM load TABLE               (TABLE was read from its file)
+ *  </pre>
+ *  where CHECKSUM is the CRC-32, in hex, of the rest of the line.  The
+ *  contents of a table are therefore those given by its last create
+ *  record after its last store or load record, if there is one, and
+ *  otherwise those of its stored file, followed in either case by the
+ *  rows of the insert records after that.  Since Tables ignore duplicate rows,
+ *  replaying an insert that is already in the stored file is harmless.
+ *  <p>
+ *  Records are written and forced to disk by a separate thread, which
+ *  takes everything appended since its last write as one batch, so that
+ *  one disk flush serves many records (group commit).  Statements wait
+ *  for their records to reach the disk before completing, unless the
+ *  log is asynchronous, in which case the log is flushed at short
+ *  intervals and a crash may lose the last few statements.  The log is
+ *  emptied whenever every table that it mentions has been stored.
+ *  @author JuKyung Choi
+ */
+class WriteAheadLog {
+
+    /** Name of the log file, or null if there is no log.  Set with the
+     *  system property db61b.wal. */
+    static final String FILE_NAME = System.getProperty("db61b.wal");
+
+    /** True iff statements wait for their log records to reach the disk.
+     *  Set with the system property db61b.walSync (default true). */
+    static final boolean SYNCHRONOUS =
+        Boolean.parseBoolean(System.getProperty("db61b.walSync", "true"));
+
+    /** Milliseconds between flushes of an asynchronous log. */
+    private static final long ASYNC_INTERVAL = 10;
+
+    /** A log kept in the file NAME, which is created if necessary.  Any
+     *  damaged records at its end, left by a crash while they were being
+     *  written, are removed.  Statements wait for their records to reach
+     *  the disk iff SYNCHRONOUS. */
+    WriteAheadLog(String name, boolean synchronous) {
+        _file = new File(name);
+        _synchronous = synchronous;
+        _pending = new StringBuilder();
+        _changed = new HashMap<>();
+        _ioLock = new Object();
+        try {
+            _channel = FileChannel.open(_file.toPath(),
+                                        StandardOpenOption.CREATE,
+                                        StandardOpenOption.WRITE);
+            long end = validLength();
+            _channel.truncate(end);
+            _channel.position(end);
+        } catch (IOException e) {
+            throw error("cannot open log %s", name);
+        }
+        _flusher = new Thread(this::flushRecords, "db61b-wal");
+        _flusher.setDaemon(true);
+        _flusher.start();
+    }
+
+    /** Add to DATABASE every table that has changes in the log, as
+     *  recovered from the log and its stored file. */
+    synchronized void recover(Map<String, Table> database) {
+        for (Map.Entry<String, Changes> e : changes().entrySet()) {
+            database.put(e.getKey(), build(e.getKey(), e.getValue()));
+            _changed.put(e.getKey(), 0L);
+        }
+    }
+
+    /** Return the number of records logged so far, which identifies the
+     *  current point in the log (see stored). */
+    synchronized long position() {
+        return _appended;
+    }
+
+    /** Log the creation of TABLE, including its current rows. */
+    void created(Table table) {
+        append("create", table.name(), table.header());
+        for (int k = 0; k < table.size(); k++) {
+            inserted(table.name(), table.getRows().get(k));
+        }
+    }
+
+    /** Log the addition of ROW to the table named NAME. */
+    void inserted(String name, Row row) {
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < row.size(); i++) {
+            if (i > 0) {
+                values.append(',');
+            }
+            values.append(row.get(i));
+        }
+        append("insert", name, values.toString());
+    }
+
+    /** Log that the table named NAME has been written to its file, which
+     *  must already be on disk, with its contents as of the point POSITION
+     *  in the log (see position), and wait for that to reach the disk.
+     *  Does nothing if changes to the table have been logged since
+     *  POSITION, since the log must then still hold those before it. */
+    void stored(String name, long position) {
+        revert("store", name, position);
+    }
+
+    /** Log that the table named NAME has been replaced by the contents of
+     *  its file, discarding any changes since it was stored, and wait for
+     *  that to reach the log. */
+    void loaded(String name) {
+        revert("load", name, Long.MAX_VALUE);
+    }
+
+    /** Append a record of kind KIND, after which the table named NAME is
+     *  as stored in its file, and wait for it to reach the disk, unless
+     *  the table has changed since the point POSITION in the log.  Empty
+     *  the log if no table then has changes in it. */
+    private void revert(String kind, String name, long position) {
+        long seq;
+        synchronized (this) {
+            Long changed = _changed.get(name);
+            if (changed != null && changed > position) {
+                return;
+            }
+            seq = append(kind, name, "");
+            _changed.remove(name);
+        }
+        waitFor(seq);
+        synchronized (_ioLock) {
+            synchronized (this) {
+                if (_changed.isEmpty() && _pending.length() == 0
+                    && _synced == _appended) {
+                    try {
+                        _channel.truncate(0);
+                        _channel.force(true);
+                    } catch (IOException e) {
+                        throw error("trouble writing to log %s", _file);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Wait until all records logged so far are on disk, if I am
+     *  synchronous. */
+    void commit() {
+        if (_synchronous) {
+            sync();
+        }
+    }
+
+    /** Write all records logged so far to disk and stop logging. */
+    void close() {
+        synchronized (this) {
+            _closed = true;
+            notifyAll();
+        }
+        try {
+            _flusher.join();
+            _channel.close();
+        } catch (InterruptedException | IOException e) {
+            throw error("trouble closing log %s", _file);
+        }
+    }
+
+    /** Append a record of kind KIND about the table named NAME, with
+     *  PAYLOAD, returning its sequence number. */
+    private synchronized long append(String kind, String name,
+                                     String payload) {
+        if (_closed) {
+            throw error("log %s is closed", _file);
+        }
+        String text = kind + " " + name + " " + payload;
+        _pending.append(checksum(text)).append(' ').append(text)
+            .append('\n');
+        _appended += 1;
+        if (kind.equals("create") || kind.equals("insert")) {
+            _changed.put(name, _appended);
+        }
+        notifyAll();
+        return _appended;
+    }
+
+    /** Wait until all records logged so far are on disk. */
+    private synchronized void sync() {
+        waitFor(_appended);
+    }
+
+    /** Wait until the record numbered SEQ is on disk. */
+    private synchronized void waitFor(long seq) {
+        boolean interrupted = false;
+        while (_synced < seq && _failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (_failure != null) {
+            throw error("trouble writing to log %s", _file);
+        }
+    }
+
+    /** Body of _flusher: repeatedly write and force to disk all records
+     *  appended since the last batch, until closed. */
+    private void flushRecords() {
+        while (true) {
+            String batch;
+            long seq;
+            synchronized (this) {
+                try {
+                    while (_pending.length() == 0 && !_closed) {
+                        wait();
+                    }
+                    if (!_synchronous && !_closed) {
+                        wait(ASYNC_INTERVAL);
+                    }
+                } catch (InterruptedException e) {
+                    _closed = true;
+                }
+                if (_pending.length() == 0) {
+                    return;
+                }
+                batch = _pending.toString();
+                _pending.setLength(0);
+                seq = _appended;
+            }
+            IOException failure = null;
+            synchronized (_ioLock) {
+                try {
+                    ByteBuffer bytes = StandardCharsets.UTF_8.encode(batch);
+                    while (bytes.hasRemaining()) {
+                        _channel.write(bytes);
+                    }
+                    _channel.force(false);
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            synchronized (this) {
+                if (failure != null) {
+                    _failure = failure;
+                } else {
+                    _synced = seq;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /** The changes recorded in the log for one table. */
+    private static class Changes {
+        /** The .db header of the table, if the log records its creation
+         *  since it was last stored, and otherwise null. */
+        private String _header;
+        /** The rows added since then. */
+        private ArrayList<Row> _rows = new ArrayList<>();
+    }
+
+    /** Return the changes recorded in the log since each table was last
+     *  stored or loaded, by table name.  Tables stored or loaded since
+     *  their last change are omitted. */
+    private HashMap<String, Changes> changes() {
+        HashMap<String, Changes> result = new HashMap<>();
+        try (InputStream in =
+                 new BufferedInputStream(new FileInputStream(_file))) {
+            String line;
+            while ((line = readRecord(in)) != null) {
+                String[] fields = line.split(" ", 3);
+                String name = fields[1];
+                switch (fields[0]) {
+                case "create":
+                    Changes created = new Changes();
+                    created._header = fields[2];
+                    result.put(name, created);
+                    break;
+                case "insert":
+                    result.computeIfAbsent(name, k -> new Changes())
+                        ._rows.add(new Row(fields[2].split(",", -1)));
+                    break;
+                default:
+                    result.remove(name);
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw error("problem reading log %s", _file);
+        }
+        return result;
+    }
+
+    /** Return the table NAME with CHANGES applied to its stored file, or,
+     *  if CHANGES include its creation, to an empty table. */
+    private static Table build(String name, Changes changes) {
+        Table table;
+        if (changes._header != null) {
+            table = Table.fromHeader(name, changes._header);
+        } else {
+            table = Table.load(name);
+        }
+        for (Row row : changes._rows) {
+            if (row.size() != table.numColumns()) {
+                throw error("log does not match stored table %s", name);
+            }
+            table.add(row);
+        }
+        return table;
+    }
+
+    /** Return the length of the longest prefix of my file that consists
+     *  of complete, undamaged records. */
+    private long validLength() throws IOException {
+        long length = 0;
+        try (InputStream in =
+                 new BufferedInputStream(new FileInputStream(_file))) {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            while (readLine(in, line)) {
+                if (record(line) == null) {
+                    break;
+                }
+                length += line.size() + 1;
+            }
+        }
+        return length;
+    }
+
+    /** Return the next record in IN, without its checksum, or null if
+     *  there are no more complete, undamaged records. */
+    private static String readRecord(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        if (!readLine(in, line)) {
+            return null;
+        }
+        return record(line);
+    }
+
+    /** Read the next newline-terminated line of IN into LINE, without the
+     *  newline.  Return false if there is no complete line left. */
+    private static boolean readLine(InputStream in, ByteArrayOutputStream line)
+        throws IOException {
+        line.reset();
+        while (true) {
+            int c = in.read();
+            if (c == -1) {
+                return false;
+            } else if (c == '\n') {
+                return true;
+            }
+            line.write(c);
+        }
+    }
+
+    /** Return the record in LINE without its checksum, or null if LINE is
+     *  not a well-formed record whose checksum is correct. */
+    private static String record(ByteArrayOutputStream line) {
+        String text = new String(line.toByteArray(), StandardCharsets.UTF_8);
+        int blank = text.indexOf(' ');
+        if (blank < 0) {
+            return null;
+        }
+        String body = text.substring(blank + 1);
+        if (!text.substring(0, blank).equals(checksum(body))
+            || body.split(" ", 3).length != 3) {
+            return null;
+        }
+        return body;
+    }
+
+    /** Return the checksum of TEXT, as written in records. */
+    private static String checksum(String text) {
+        CRC32 crc = new CRC32();
+        crc.update(text.getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
+    }
+
+    /** The log file. */
+    private final File _file;
+    /** Channel for writing _file. */
+    private final FileChannel _channel;
+    /** True iff commit waits for records to reach the disk. */
+    private final boolean _synchronous;
+    /** Records appended but not yet taken by _flusher. */
+    private final StringBuilder _pending;
+    /** Maps the name of each table with changes in the log to the number
+     *  of the last record of a change. */
+    private final HashMap<String, Long> _changed;
+    /** Held while writing to or truncating _channel. */
+    private final Object _ioLock;
+    /** Thread that writes records to disk. */
+    private final Thread _flusher;
+    /** Number of records appended. */
+    private long _appended;
+    /** Number of records known to be on disk. */
+    private long _synced;
+    /** True once close has been called. */
+    private boolean _closed;
+    /** The error that stopped _flusher, or null. */
+    private IOException _failure;
+}